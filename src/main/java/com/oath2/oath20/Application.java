@@ -1,11 +1,15 @@
 package com.oath2.oath20;
 
 import com.oath2.oath20.config.RsaKeyRecord;
+import com.oath2.oath20.config.authorizationConfig.RolePermissionProperties;
+import com.oath2.oath20.config.rateLimitConfig.RateLimitProperties;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-@EnableConfigurationProperties(RsaKeyRecord.class)
+@EnableConfigurationProperties({RsaKeyRecord.class, RolePermissionProperties.class, RateLimitProperties.class})
+@EnableScheduling
 @SpringBootApplication
 public class Application {
 
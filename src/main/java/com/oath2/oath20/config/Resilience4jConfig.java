@@ -1,24 +0,0 @@
-package com.oath2.oath20.config;
-
-import io.github.resilience4j.ratelimiter.RateLimiter;
-import io.github.resilience4j.ratelimiter.RateLimiterConfig;
-import io.github.resilience4j.ratelimiter.RateLimiterRegistry;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-
-import java.time.Duration;
-
-@Configuration
-public class Resilience4jConfig {
-
-    @Bean
-    public RateLimiter rateLimiter() {
-        RateLimiterConfig config = RateLimiterConfig.custom()
-                .limitRefreshPeriod(Duration.ofMinutes(1))
-                .limitForPeriod(2)
-                .timeoutDuration(Duration.ofSeconds(1))
-                .build();
-
-        return RateLimiterRegistry.of(config).rateLimiter("default");
-    }
-}
\ No newline at end of file
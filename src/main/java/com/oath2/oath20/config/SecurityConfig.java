@@ -1,18 +1,19 @@
 package com.oath2.oath20.config;
 
-import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
-import com.nimbusds.jose.jwk.source.JWKSource;
-import com.nimbusds.jose.proc.SecurityContext;
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
+import com.oath2.oath20.config.jwtConfig.CachingJwtDecoder;
 import com.oath2.oath20.config.jwtConfig.JwtAccessTokenFilter;
 import com.oath2.oath20.config.jwtConfig.JwtRefreshTokenFilter;
+import com.oath2.oath20.config.jwtConfig.JwtKeyRing;
 import com.oath2.oath20.config.jwtConfig.JwtTokenUtils;
-import com.oath2.oath20.repository.RefreshTokenRepository;
+import com.oath2.oath20.config.jwtConfig.KeyRingJwtDecoder;
+import com.oath2.oath20.config.jwtConfig.RequestJwtAuthenticationManagerResolver;
 import com.oath2.oath20.service.LogoutHandlerService;
+import com.oath2.oath20.service.RefreshTokenService;
+import io.micrometer.core.instrument.MeterRegistry;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.annotation.Order;
@@ -22,18 +23,19 @@ import org.springframework.security.config.annotation.web.configuration.EnableWe
 import org.springframework.security.config.annotation.web.configurers.AbstractHttpConfigurer;
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.crypto.argon2.Argon2PasswordEncoder;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.DelegatingPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
-import org.springframework.security.oauth2.jwt.JwtEncoder;
-import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
-import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
 import org.springframework.security.oauth2.server.resource.web.BearerTokenAuthenticationEntryPoint;
 import org.springframework.security.oauth2.server.resource.web.access.BearerTokenAccessDeniedHandler;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.security.web.authentication.UsernamePasswordAuthenticationFilter;
 import org.springframework.security.web.util.matcher.AntPathRequestMatcher;
 
+import java.util.Map;
+
 import static org.springframework.security.config.Customizer.withDefaults;
 
 @Configuration
@@ -43,10 +45,8 @@ import static org.springframework.security.config.Customizer.withDefaults;
 public class SecurityConfig {
 
 //    private final UserInfoManagerConfig userInfoManagerConfig;
-    private final RsaKeyRecord rsaKeyRecord;
     private final JwtTokenUtils jwtTokenUtils;
-    private final RefreshTokenRepository refreshTokenRepository;
-    private final LogoutHandlerService logoutHandlerService;
+    private final AuthorizationModel authorizationModel;
 
     @Order(1)
     @Bean
@@ -64,14 +64,14 @@ public class SecurityConfig {
 
     @Order(2)
     @Bean
-    public SecurityFilterChain apiSecurityFilterChain(HttpSecurity httpSecurity) throws Exception{
+    public SecurityFilterChain apiSecurityFilterChain(HttpSecurity httpSecurity, JwtDecoder jwtDecoder) throws Exception{
         return httpSecurity
                 .securityMatcher(new AntPathRequestMatcher("/api/**"))
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth.anyRequest().authenticated())
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(withDefaults()))
+                .oauth2ResourceServer(oauth2 -> oauth2.authenticationManagerResolver(new RequestJwtAuthenticationManagerResolver(jwtDecoder, authorizationModel.jwtAuthenticationConverter())))
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
-                .addFilterBefore(new JwtAccessTokenFilter(rsaKeyRecord,  jwtTokenUtils), UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(new JwtAccessTokenFilter(jwtDecoder, jwtTokenUtils), UsernamePasswordAuthenticationFilter.class)
                 .exceptionHandling(ex -> {
                     ex.authenticationEntryPoint(new BearerTokenAuthenticationEntryPoint());
                     ex.accessDeniedHandler(new BearerTokenAccessDeniedHandler());
@@ -81,13 +81,13 @@ public class SecurityConfig {
 
     @Order(3) // Adjust the order as needed
     @Bean
-    public SecurityFilterChain profileSecurityFilterChain(HttpSecurity httpSecurity) throws Exception {
+    public SecurityFilterChain profileSecurityFilterChain(HttpSecurity httpSecurity, JwtDecoder jwtDecoder) throws Exception {
         return httpSecurity
                 .securityMatcher("/api/profile/**")
                 .csrf(AbstractHttpConfigurer::disable)
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(withDefaults()))
+                .oauth2ResourceServer(oauth2 -> oauth2.authenticationManagerResolver(new RequestJwtAuthenticationManagerResolver(jwtDecoder, authorizationModel.jwtAuthenticationConverter())))
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
-                .addFilterBefore(new JwtAccessTokenFilter(rsaKeyRecord, jwtTokenUtils), UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(new JwtAccessTokenFilter(jwtDecoder, jwtTokenUtils), UsernamePasswordAuthenticationFilter.class)
                 .exceptionHandling(ex -> {
                     ex.authenticationEntryPoint(new BearerTokenAuthenticationEntryPoint());
                     ex.accessDeniedHandler(new BearerTokenAccessDeniedHandler());
@@ -98,13 +98,14 @@ public class SecurityConfig {
 
     @Order(4)
     @Bean
-    public SecurityFilterChain refreshTokenSecurityFilterChain(HttpSecurity httpSecurity) throws Exception{
+    public SecurityFilterChain refreshTokenSecurityFilterChain(HttpSecurity httpSecurity, JwtDecoder jwtDecoder,
+                                                               RefreshTokenService refreshTokenService) throws Exception{
         return httpSecurity
                 .securityMatcher(new AntPathRequestMatcher("/refresh-token/**"))
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth.anyRequest().authenticated())
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(withDefaults()))
-                .addFilterBefore(new JwtRefreshTokenFilter(rsaKeyRecord,jwtTokenUtils,refreshTokenRepository), UsernamePasswordAuthenticationFilter.class)
+                .oauth2ResourceServer(oauth2 -> oauth2.authenticationManagerResolver(new RequestJwtAuthenticationManagerResolver(jwtDecoder, authorizationModel.jwtAuthenticationConverter())))
+                .addFilterBefore(new JwtRefreshTokenFilter(jwtDecoder, jwtTokenUtils, refreshTokenService), UsernamePasswordAuthenticationFilter.class)
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .exceptionHandling(ex -> {
                     ex.authenticationEntryPoint(new BearerTokenAuthenticationEntryPoint());
@@ -116,14 +117,15 @@ public class SecurityConfig {
 
     @Order(5)
     @Bean
-    public SecurityFilterChain logoutSecurityFilterChain(HttpSecurity httpSecurity) throws Exception {
+    public SecurityFilterChain logoutSecurityFilterChain(HttpSecurity httpSecurity, JwtDecoder jwtDecoder,
+                                                         LogoutHandlerService logoutHandlerService) throws Exception {
         return httpSecurity
                 .securityMatcher(new AntPathRequestMatcher("/logout/**"))
                 .csrf(AbstractHttpConfigurer::disable)
                 .authorizeHttpRequests(auth -> auth.anyRequest().authenticated())
-                .oauth2ResourceServer(oauth2 -> oauth2.jwt(withDefaults()))
+                .oauth2ResourceServer(oauth2 -> oauth2.authenticationManagerResolver(new RequestJwtAuthenticationManagerResolver(jwtDecoder, authorizationModel.jwtAuthenticationConverter())))
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
-                .addFilterBefore(new JwtAccessTokenFilter(rsaKeyRecord,jwtTokenUtils), UsernamePasswordAuthenticationFilter.class)
+                .addFilterBefore(new JwtAccessTokenFilter(jwtDecoder, jwtTokenUtils), UsernamePasswordAuthenticationFilter.class)
                 .logout(logout -> logout
                         .logoutUrl("/logout")
                         .addLogoutHandler(logoutHandlerService)
@@ -146,22 +148,36 @@ public class SecurityConfig {
                 .build();
     }
 
+    @Order(7)
     @Bean
-    PasswordEncoder passwordEncoder(){
-        return new BCryptPasswordEncoder();
+    public SecurityFilterChain wellKnownSecurityFilterChain(HttpSecurity httpSecurity) throws Exception {
+        return httpSecurity
+                .securityMatcher("/.well-known/**")
+                .csrf(AbstractHttpConfigurer::disable)
+                .authorizeHttpRequests(auth -> auth.anyRequest().permitAll())
+                .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
+                .build();
     }
 
+    //  new hashes are written as {bcrypt}/{argon2} with the configured cost; hashes stored before the prefix existed are plain BCrypt.
+    //  upgradeEncoding() is true for anything weaker than the current setting, which triggers a rehash on the next sign-in
     @Bean
-    JwtDecoder jwtDecoder(){
-        return NimbusJwtDecoder.withPublicKey(
-                rsaKeyRecord.rsaPublicKey()).build();
+    PasswordEncoder passwordEncoder(@Value("${security.password.encoder:bcrypt}") String encoderId,
+                                    @Value("${security.password.bcrypt-strength:10}") int bcryptStrength){
+        BCryptPasswordEncoder bCryptPasswordEncoder = new BCryptPasswordEncoder(bcryptStrength);
+
+        DelegatingPasswordEncoder passwordEncoder = new DelegatingPasswordEncoder(encoderId, Map.of(
+                "bcrypt", bCryptPasswordEncoder,
+                "argon2", Argon2PasswordEncoder.defaultsForSpringSecurity_v5_8()
+        ));
+        passwordEncoder.setDefaultPasswordEncoderForMatches(bCryptPasswordEncoder);
+        return passwordEncoder;
     }
 
     @Bean
-    JwtEncoder jwtEncoder(RsaKeyRecord rsaKeyRecord){
-        JWK jwk = new RSAKey.Builder(rsaKeyRecord.rsaPublicKey()).privateKey(rsaKeyRecord.rsaPrivateKey()).build();
-        JWKSource<SecurityContext> jwkSource = new ImmutableJWKSet<>(new JWKSet(jwk));
-
-        return new NimbusJwtEncoder(jwkSource);
+    JwtDecoder jwtDecoder(JwtKeyRing jwtKeyRing,
+                          MeterRegistry meterRegistry,
+                          @Value("${jwt.decoder-cache.maximum-size:10000}") long maximumCacheSize){
+        return new CachingJwtDecoder(new KeyRingJwtDecoder(jwtKeyRing), maximumCacheSize, meterRegistry);
     }
 }
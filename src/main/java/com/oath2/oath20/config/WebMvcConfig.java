@@ -0,0 +1,23 @@
+package com.oath2.oath20.config;
+
+import com.oath2.oath20.config.concurrencyLimitConfig.ConcurrencyLimitInterceptor;
+import com.oath2.oath20.config.rateLimitConfig.RateLimitInterceptor;
+import lombok.RequiredArgsConstructor;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+@Configuration
+@RequiredArgsConstructor
+public class WebMvcConfig implements WebMvcConfigurer {
+
+    private final ConcurrencyLimitInterceptor concurrencyLimitInterceptor;
+    private final RateLimitInterceptor rateLimitInterceptor;
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        // shed load before spending a redis round trip on the rate limit
+        registry.addInterceptor(concurrencyLimitInterceptor);
+        registry.addInterceptor(rateLimitInterceptor);
+    }
+}
@@ -0,0 +1,148 @@
+package com.oath2.oath20.config.authorizationConfig;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.GrantedAuthority;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+//  role -> scope table compiled once at startup; role and scope strings are parsed once and then served from the
+//  caches below. Those are keyed by caller supplied strings, so they are bounded, and only configured roles are granted
+@Component("authorizationModel")
+public class AuthorizationModel {
+
+    private static final Pattern SEPARATOR = Pattern.compile("[,\\s]+");
+    private static final String SCOPE_PREFIX = "SCOPE_";
+    // carried by refresh tokens only, no role grants it
+    public static final String REFRESH_TOKEN_SCOPE = "REFRESH_TOKEN";
+
+    private final Map<String, Integer> scopeIndexes = new HashMap<>();
+    private final List<GrantedAuthority> scopeAuthorities = new ArrayList<>();
+    private final Map<String, BitSet> roleScopes = new HashMap<>();
+
+    private static final int MAXIMUM_CACHED_STRINGS = 1024;
+
+    private final Map<String, GrantedAuthority> roleAuthorities = new HashMap<>();
+    private final Cache<String, CompiledAuthorities> compiledByRoles = Caffeine.newBuilder().maximumSize(MAXIMUM_CACHED_STRINGS).build();
+    private final Cache<String, CompiledAuthorities> compiledByScopeClaim = Caffeine.newBuilder().maximumSize(MAXIMUM_CACHED_STRINGS).build();
+    // at most one entry per combination of configured scopes
+    private final Map<BitSet, CompiledAuthorities> compiledByScopes = new ConcurrentHashMap<>();
+
+    public AuthorizationModel(RolePermissionProperties rolePermissionProperties) {
+        internScope(REFRESH_TOKEN_SCOPE);
+        rolePermissionProperties.rolePermissions().forEach((role, scopes) -> {
+            BitSet scopeBits = new BitSet();
+            scopes.forEach(scope -> scopeBits.set(internScope(scope.trim())));
+            roleScopes.put(role.trim(), scopeBits);
+            roleAuthorities.put(role.trim(), new SimpleGrantedAuthority(role.trim()));
+        });
+    }
+
+    // true when every role in the string is configured, checked before roles are stored for a new user
+    public boolean isKnownRoles(String roles) {
+        if (roles == null || roles.isBlank()) {
+            return false;
+        }
+        for (String role : SEPARATOR.split(roles.trim())) {
+            if (!role.isEmpty() && !roleScopes.containsKey(role)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // roles as stored in USER_INFO.ROLES (comma separated) or joined from granted authorities (space separated)
+    public CompiledAuthorities compileRoles(String roles) {
+        return compiledByRoles.get(roles, this::compile);
+    }
+
+    // the "scope" claim of an access token
+    public CompiledAuthorities compileScopeClaim(String scopeClaim) {
+        return compiledByScopeClaim.get(scopeClaim == null ? "" : scopeClaim, claim -> {
+            BitSet scopeBits = new BitSet();
+            for (String scope : SEPARATOR.split(claim.trim())) {
+                Integer scopeIndex = scopeIndexes.get(scope);
+                if (scopeIndex != null) {
+                    scopeBits.set(scopeIndex);
+                }
+            }
+            return compiledForScopes(List.of(), scopeBits);
+        });
+    }
+
+    public JwtAuthenticationConverter jwtAuthenticationConverter() {
+        JwtAuthenticationConverter jwtAuthenticationConverter = new JwtAuthenticationConverter();
+        jwtAuthenticationConverter.setJwtGrantedAuthoritiesConverter(jwt ->
+                compileScopeClaim(jwt.getClaimAsString("scope")).scopeAuthorities());
+        return jwtAuthenticationConverter;
+    }
+
+    // used from @PreAuthorize("@authorizationModel.hasScope(authentication, 'READ')")
+    public boolean hasScope(Authentication authentication, String scope) {
+        if (authentication instanceof JwtAuthenticationToken jwtAuthenticationToken) {
+            return compileScopeClaim(jwtAuthenticationToken.getToken().getClaimAsString("scope"))
+                    .hasScope(scopeIndexes.getOrDefault(scope, -1));
+        }
+
+        return authentication != null && authentication.getAuthorities().stream()
+                .anyMatch(authority -> (SCOPE_PREFIX + scope).equals(authority.getAuthority()));
+    }
+
+    private CompiledAuthorities compile(String roles) {
+        List<GrantedAuthority> compiledRoleAuthorities = new ArrayList<>();
+        BitSet scopeBits = new BitSet();
+
+        for (String role : SEPARATOR.split(roles.trim())) {
+            if (role.isEmpty()) {
+                continue;
+            }
+            // a role missing from the table grants nothing
+            GrantedAuthority roleAuthority = roleAuthorities.get(role);
+            if (roleAuthority != null) {
+                compiledRoleAuthorities.add(roleAuthority);
+                scopeBits.or(roleScopes.get(role));
+            }
+        }
+
+        return compiledForScopes(compiledRoleAuthorities, scopeBits);
+    }
+
+    private CompiledAuthorities compiledForScopes(List<GrantedAuthority> compiledRoleAuthorities, BitSet scopeBits) {
+        CompiledAuthorities scopesOnly = compiledByScopes.computeIfAbsent(scopeBits, bits -> {
+            List<GrantedAuthority> grantedScopeAuthorities = new ArrayList<>();
+            StringBuilder scope = new StringBuilder();
+            bits.stream().forEach(scopeIndex -> {
+                GrantedAuthority scopeAuthority = scopeAuthorities.get(scopeIndex);
+                grantedScopeAuthorities.add(scopeAuthority);
+                if (!scope.isEmpty()) {
+                    scope.append(' ');
+                }
+                scope.append(scopeAuthority.getAuthority().substring(SCOPE_PREFIX.length()));
+            });
+            return new CompiledAuthorities(List.of(), bits, grantedScopeAuthorities, scope.toString());
+        });
+
+        if (compiledRoleAuthorities.isEmpty()) {
+            return scopesOnly;
+        }
+        return new CompiledAuthorities(compiledRoleAuthorities, scopeBits, scopesOnly.scopeAuthorities(), scopesOnly.scope());
+    }
+
+    private int internScope(String scope) {
+        return scopeIndexes.computeIfAbsent(scope, name -> {
+            scopeAuthorities.add(new SimpleGrantedAuthority(SCOPE_PREFIX + name));
+            return scopeAuthorities.size() - 1;
+        });
+    }
+}
@@ -0,0 +1,40 @@
+package com.oath2.oath20.config.authorizationConfig;
+
+import org.springframework.security.core.GrantedAuthority;
+
+import java.util.BitSet;
+import java.util.List;
+
+// immutable result of compiling one role combination, shared by every user that has exactly those roles
+public final class CompiledAuthorities {
+
+    private final List<GrantedAuthority> roleAuthorities;
+    private final BitSet scopes;
+    private final List<GrantedAuthority> scopeAuthorities;
+    private final String scope;
+
+    CompiledAuthorities(List<GrantedAuthority> roleAuthorities, BitSet scopes, List<GrantedAuthority> scopeAuthorities, String scope) {
+        this.roleAuthorities = List.copyOf(roleAuthorities);
+        this.scopes = (BitSet) scopes.clone();
+        this.scopeAuthorities = List.copyOf(scopeAuthorities);
+        this.scope = scope;
+    }
+
+    public List<GrantedAuthority> roleAuthorities() {
+        return roleAuthorities;
+    }
+
+    // SCOPE_* authorities, as the resource server grants them from the "scope" claim
+    public List<GrantedAuthority> scopeAuthorities() {
+        return scopeAuthorities;
+    }
+
+    // space separated value for the "scope" claim
+    public String scope() {
+        return scope;
+    }
+
+    boolean hasScope(int scopeIndex) {
+        return scopeIndex >= 0 && scopes.get(scopeIndex);
+    }
+}
@@ -0,0 +1,21 @@
+package com.oath2.oath20.config.authorizationConfig;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.util.List;
+import java.util.Map;
+
+// role -> scopes table, e.g. authorization.role-permissions[ROLE_ADMIN]=READ,WRITE,DELETE
+@ConfigurationProperties(prefix = "authorization")
+public record RolePermissionProperties(Map<String, List<String>> rolePermissions) {
+
+    public RolePermissionProperties {
+        if (rolePermissions == null || rolePermissions.isEmpty()) {
+            rolePermissions = Map.of(
+                    "ROLE_ADMIN", List.of("READ", "WRITE", "DELETE"),
+                    "ROLE_MANAGER", List.of("READ"),
+                    "ROLE_USER", List.of("READ")
+            );
+        }
+    }
+}
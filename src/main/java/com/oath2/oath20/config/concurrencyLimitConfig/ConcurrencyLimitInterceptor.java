@@ -0,0 +1,94 @@
+package com.oath2.oath20.config.concurrencyLimitConfig;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//  admits @ConcurrencyLimited requests only while their endpoint is under its adaptive limit, anything beyond it gets an
+//  immediate 503 instead of waiting in tomcat's queue. Limits are per node and per endpoint, published as
+//  concurrency.limit / concurrency.inflight gauges
+@Component
+public class ConcurrencyLimitInterceptor implements HandlerInterceptor {
+
+    private static final String ADMISSION = ConcurrencyLimitInterceptor.class.getName() + ".ADMISSION";
+
+    private final MeterRegistry meterRegistry;
+    private final int initialLimit;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double rttTolerance;
+    private final double smoothing;
+    private final Map<String, GradientConcurrencyLimit> limits = new ConcurrentHashMap<>();
+
+    private record Admission(GradientConcurrencyLimit limit, long startNanos) {
+    }
+
+    public ConcurrencyLimitInterceptor(MeterRegistry meterRegistry,
+                                       @Value("${concurrency-limit.initial-limit:20}") int initialLimit,
+                                       @Value("${concurrency-limit.min-limit:2}") int minLimit,
+                                       @Value("${concurrency-limit.max-limit:200}") int maxLimit,
+                                       @Value("${concurrency-limit.rtt-tolerance:2.0}") double rttTolerance,
+                                       @Value("${concurrency-limit.smoothing:0.2}") double smoothing) {
+        this.meterRegistry = meterRegistry;
+        this.initialLimit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.rttTolerance = rttTolerance;
+        this.smoothing = smoothing;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        ConcurrencyLimited concurrencyLimited = handlerMethod.getMethodAnnotation(ConcurrencyLimited.class);
+        if (concurrencyLimited == null) {
+            return true;
+        }
+
+        GradientConcurrencyLimit limit = limits.computeIfAbsent(concurrencyLimited.value(), this::createLimit);
+        if (!limit.tryAcquire()) {
+            Counter.builder("concurrency.rejected").tag("endpoint", concurrencyLimited.value()).register(meterRegistry).increment();
+            response.setHeader(HttpHeaders.RETRY_AFTER, "1");
+            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Server is busy. Please try again shortly.");
+            return false;
+        }
+
+        request.setAttribute(ADMISSION, new Admission(limit, System.nanoTime()));
+        return true;
+    }
+
+    @Override
+    public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) {
+        if (request.getAttribute(ADMISSION) instanceof Admission admission) {
+            request.removeAttribute(ADMISSION);
+            // a 503 from downstream (hashing queue, redis) means we are already past capacity
+            boolean dropped = ex != null || response.getStatus() == HttpStatus.SERVICE_UNAVAILABLE.value();
+            admission.limit().release(System.nanoTime() - admission.startNanos(), dropped);
+        }
+    }
+
+    private GradientConcurrencyLimit createLimit(String endpoint) {
+        GradientConcurrencyLimit limit = new GradientConcurrencyLimit(initialLimit, minLimit, maxLimit, rttTolerance, smoothing);
+        Gauge.builder("concurrency.limit", limit, GradientConcurrencyLimit::getLimit).tag("endpoint", endpoint).register(meterRegistry);
+        Gauge.builder("concurrency.inflight", limit, GradientConcurrencyLimit::getInFlight).tag("endpoint", endpoint).register(meterRegistry);
+        return limit;
+    }
+}
@@ -0,0 +1,14 @@
+package com.oath2.oath20.config.concurrencyLimitConfig;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// puts a controller method behind its own adaptive in-flight limit, named after the endpoint
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface ConcurrencyLimited {
+
+    String value();
+}
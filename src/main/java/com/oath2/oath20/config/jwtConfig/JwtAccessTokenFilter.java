@@ -1,6 +1,5 @@
 package com.oath2.oath20.config.jwtConfig;
 
-import com.oath2.oath20.config.RsaKeyRecord;
 import com.oath2.oath20.dto.TokenType;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -16,7 +15,6 @@ import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.jwt.JwtValidationException;
-import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.server.ResponseStatusException;
@@ -26,7 +24,7 @@ import java.io.IOException;
 @RequiredArgsConstructor
 public class JwtAccessTokenFilter extends OncePerRequestFilter {
 
-    private final RsaKeyRecord rsaKeyRecord;
+    private final JwtDecoder jwtDecoder;
     private final JwtTokenUtils jwtTokenUtils;
     @Override
     protected void doFilterInternal(HttpServletRequest request,
@@ -37,15 +35,13 @@ public class JwtAccessTokenFilter extends OncePerRequestFilter {
 
             final String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
 
-            JwtDecoder jwtDecoder =  NimbusJwtDecoder.withPublicKey(rsaKeyRecord.rsaPublicKey()).build();
-
             if (authHeader == null || !authHeader.startsWith("Bearer ")) {
                 filterChain.doFilter(request, response);
                 return;
             }
 
             final String token = authHeader.substring(7);
-            final Jwt jwtToken = jwtDecoder.decode(token);
+            final Jwt jwtToken = RequestJwt.decode(request, token, jwtDecoder);
             final String userName = jwtTokenUtils.getUserName(jwtToken);
 
             if(!userName.isEmpty() && SecurityContextHolder.getContext().getAuthentication() == null){
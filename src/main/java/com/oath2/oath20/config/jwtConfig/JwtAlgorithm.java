@@ -0,0 +1,45 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+// JWS algorithms we can sign and verify with plain JCA, no extra crypto provider needed
+public enum JwtAlgorithm {
+
+    RS256("SHA256withRSA"),
+    // JWS wants the raw r||s signature, which is what the P1363 variant produces
+    ES256("SHA256withECDSAinP1363Format"),
+    EdDSA("Ed25519");
+
+    private final String jcaAlgorithm;
+
+    JwtAlgorithm(String jcaAlgorithm) {
+        this.jcaAlgorithm = jcaAlgorithm;
+    }
+
+    public String getJcaAlgorithm() {
+        return jcaAlgorithm;
+    }
+
+    public KeyPair generateKeyPair() {
+        try {
+            return switch (this) {
+                case RS256 -> {
+                    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+                    generator.initialize(2048);
+                    yield generator.generateKeyPair();
+                }
+                case ES256 -> {
+                    KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                    generator.initialize(new ECGenParameterSpec("secp256r1"));
+                    yield generator.generateKeyPair();
+                }
+                case EdDSA -> KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+            };
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot generate " + name() + " key pair", e);
+        }
+    }
+}
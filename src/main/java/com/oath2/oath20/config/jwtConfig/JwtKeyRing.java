@@ -0,0 +1,255 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.OctetKeyPair;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.util.Base64URL;
+import com.oath2.oath20.config.RsaKeyRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.interfaces.ECPublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+//  kid -> key ring used for signing and verification.
+//  private keys never leave the node; public keys are published to redis so every node (and /.well-known/jwks.json)
+//  can verify tokens minted by any node, and stay there for `retention` after the last node stopped signing with them
+@Component
+public class JwtKeyRing {
+    private static final Logger logger = LoggerFactory.getLogger(JwtKeyRing.class);
+
+    private static final String PUBLIC_KEYS = "jwt:jwks";
+    private static final String PUBLIC_KEY_EXPIRY = "jwt:jwks:expiry";
+    // X.509 SubjectPublicKeyInfo prefix of an Ed25519 key, followed by the raw 32 byte public key
+    private static final byte[] ED25519_X509_PREFIX = HexFormat.of().parseHex("302a300506032b6570032100");
+
+    private final StringRedisTemplate redisTemplate;
+    private final JwtAlgorithm signingAlgorithm;
+    private final boolean rotationEnabled;
+    private final Duration rotationInterval;
+    private final Duration retention;
+
+    private final RingKey bootstrapKey;
+    private final Map<String, VerificationKey> verificationKeys = new ConcurrentHashMap<>();
+    private final Cache<String, Boolean> unknownKeyIds;
+    private volatile RingKey currentKey;
+
+    public record VerificationKey(JwtAlgorithm algorithm, PublicKey publicKey) {
+
+        public boolean verify(byte[] signingInput, byte[] signature) {
+            try {
+                Signature verifier = Signature.getInstance(algorithm.getJcaAlgorithm());
+                verifier.initVerify(publicKey);
+                verifier.update(signingInput);
+                return verifier.verify(signature);
+            } catch (GeneralSecurityException e) {
+                return false;
+            }
+        }
+    }
+
+    private record RingKey(JWK publicJwk, JwtSigningKey signingKey, Instant createdAt) {
+    }
+
+    public JwtKeyRing(RsaKeyRecord rsaKeyRecord,
+                      StringRedisTemplate redisTemplate,
+                      @Value("${jwt.signing.algorithm:RS256}") JwtAlgorithm signingAlgorithm,
+                      @Value("${jwt.signing.rotation-enabled:false}") boolean rotationEnabled,
+                      @Value("${jwt.signing.rotation-interval:P7D}") Duration rotationInterval,
+                      @Value("${jwt.signing.retention:P16D}") Duration retention,
+                      @Value("${jwt.signing.unknown-kid-ttl:PT30S}") Duration unknownKeyIdTtl,
+                      @Value("${jwt.signing.unknown-kid-cache-size:10000}") long unknownKeyIdCacheSize) {
+        this.redisTemplate = redisTemplate;
+        this.signingAlgorithm = signingAlgorithm;
+        this.rotationEnabled = rotationEnabled;
+        this.rotationInterval = rotationInterval;
+        this.retention = retention;
+        this.unknownKeyIds = Caffeine.newBuilder()
+                .maximumSize(unknownKeyIdCacheSize)
+                .expireAfterWrite(unknownKeyIdTtl)
+                .build();
+
+        // the configured RSA key has the same thumbprint kid on every node, it also verifies tokens minted before kids existed
+        this.bootstrapKey = createRingKey(JwtAlgorithm.RS256, new KeyPair(rsaKeyRecord.rsaPublicKey(), rsaKeyRecord.rsaPrivateKey()));
+        register(bootstrapKey);
+
+        this.currentKey = signingAlgorithm == JwtAlgorithm.RS256
+                ? bootstrapKey
+                : createRingKey(signingAlgorithm, signingAlgorithm.generateKeyPair());
+        if (currentKey != bootstrapKey) {
+            register(currentKey);
+        }
+        logger.info("Signing tokens with {} key {}", signingAlgorithm, currentKey.signingKey().getKeyId());
+    }
+
+    public JwtSigningKey currentSigningKey() {
+        return currentKey.signingKey();
+    }
+
+    public Optional<VerificationKey> findVerificationKey(String keyId) {
+        if (keyId == null) {
+            return Optional.ofNullable(verificationKeys.get(bootstrapKey.signingKey().getKeyId()));
+        }
+
+        VerificationKey verificationKey = verificationKeys.get(keyId);
+        if (verificationKey == null) {
+            // forged tokens with made-up kids are answered locally instead of costing a redis round trip each
+            if (unknownKeyIds.getIfPresent(keyId) != null) {
+                return Optional.empty();
+            }
+            verificationKey = loadPublishedKey(keyId);
+            if (verificationKey != null) {
+                verificationKeys.put(keyId, verificationKey);
+            }
+        }
+        return Optional.ofNullable(verificationKey);
+    }
+
+    public Map<String, Object> publicJwkSet() {
+        List<JWK> publicJwks = new ArrayList<>();
+        try {
+            for (Object json : redisTemplate.opsForHash().values(PUBLIC_KEYS)) {
+                publicJwks.add(JWK.parse(json.toString()));
+            }
+        } catch (DataAccessException | ParseException e) {
+            logger.warn("Failed to read published signing keys, serving only this node's keys", e);
+            publicJwks.clear();
+            publicJwks.add(bootstrapKey.publicJwk());
+            if (currentKey != bootstrapKey) {
+                publicJwks.add(currentKey.publicJwk());
+            }
+        }
+        return new JWKSet(publicJwks).toJSONObject(true);
+    }
+
+    //  rotates the signing key when due, keeps the keys this node still uses alive in redis and drops expired ones
+    @Scheduled(fixedDelayString = "${jwt.signing.rotation-check-interval:PT1H}")
+    public void maintainKeys() {
+        if (rotationEnabled && currentKey.createdAt().plus(rotationInterval).isBefore(Instant.now())) {
+            RingKey rotatedKey = createRingKey(signingAlgorithm, signingAlgorithm.generateKeyPair());
+            register(rotatedKey);
+            currentKey = rotatedKey;
+            logger.info("Rotated signing key, now signing with {} key {}", signingAlgorithm, rotatedKey.signingKey().getKeyId());
+        }
+
+        try {
+            double expiresAt = Instant.now().plus(retention).getEpochSecond();
+            redisTemplate.opsForZSet().add(PUBLIC_KEY_EXPIRY, bootstrapKey.signingKey().getKeyId(), expiresAt);
+            redisTemplate.opsForZSet().add(PUBLIC_KEY_EXPIRY, currentKey.signingKey().getKeyId(), expiresAt);
+
+            Set<String> expiredKeyIds = redisTemplate.opsForZSet().rangeByScore(PUBLIC_KEY_EXPIRY, 0, Instant.now().getEpochSecond());
+            if (expiredKeyIds != null && !expiredKeyIds.isEmpty()) {
+                redisTemplate.opsForHash().delete(PUBLIC_KEYS, expiredKeyIds.toArray());
+                redisTemplate.opsForZSet().remove(PUBLIC_KEY_EXPIRY, expiredKeyIds.toArray());
+            }
+
+            // whichever node swept a key from redis, every node stops verifying with it on its next run
+            Set<Object> publishedKeyIds = redisTemplate.opsForHash().keys(PUBLIC_KEYS);
+            verificationKeys.keySet().removeIf(keyId -> !publishedKeyIds.contains(keyId)
+                    && !keyId.equals(bootstrapKey.signingKey().getKeyId())
+                    && !keyId.equals(currentKey.signingKey().getKeyId()));
+        } catch (DataAccessException e) {
+            logger.warn("Failed to maintain published signing keys", e);
+        }
+    }
+
+    private void register(RingKey ringKey) {
+        String keyId = ringKey.signingKey().getKeyId();
+        verificationKeys.put(keyId, toVerificationKey(ringKey.publicJwk()));
+        unknownKeyIds.invalidate(keyId);
+        try {
+            redisTemplate.opsForHash().put(PUBLIC_KEYS, keyId, ringKey.publicJwk().toJSONString());
+            redisTemplate.opsForZSet().add(PUBLIC_KEY_EXPIRY, keyId, Instant.now().plus(retention).getEpochSecond());
+        } catch (DataAccessException e) {
+            logger.warn("Failed to publish signing key {}, other nodes cannot verify its tokens yet", keyId, e);
+        }
+    }
+
+    // only a kid redis does not know is remembered as unknown, a failed lookup is retried on the next token
+    private VerificationKey loadPublishedKey(String keyId) {
+        try {
+            Object json = redisTemplate.opsForHash().get(PUBLIC_KEYS, keyId);
+            if (json == null) {
+                unknownKeyIds.put(keyId, Boolean.TRUE);
+                return null;
+            }
+            return toVerificationKey(JWK.parse(json.toString()));
+        } catch (DataAccessException | ParseException e) {
+            logger.warn("Failed to load published signing key {}", keyId, e);
+            return null;
+        }
+    }
+
+    private static RingKey createRingKey(JwtAlgorithm algorithm, KeyPair keyPair) {
+        try {
+            JWK publicJwk = switch (algorithm) {
+                case RS256 -> new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                        .keyUse(KeyUse.SIGNATURE).algorithm(JWSAlgorithm.RS256).keyIDFromThumbprint().build();
+                case ES256 -> new ECKey.Builder(Curve.P_256, (ECPublicKey) keyPair.getPublic())
+                        .keyUse(KeyUse.SIGNATURE).algorithm(JWSAlgorithm.ES256).keyIDFromThumbprint().build();
+                case EdDSA -> new OctetKeyPair.Builder(Curve.Ed25519, Base64URL.encode(rawEd25519Key(keyPair.getPublic())))
+                        .keyUse(KeyUse.SIGNATURE).algorithm(JWSAlgorithm.EdDSA).keyIDFromThumbprint().build();
+            };
+            return new RingKey(publicJwk, JwtSigningKey.of(algorithm, publicJwk.getKeyID(), keyPair.getPrivate()), Instant.now());
+        } catch (JOSEException e) {
+            throw new IllegalStateException("Cannot build " + algorithm + " signing key", e);
+        }
+    }
+
+    private static VerificationKey toVerificationKey(JWK publicJwk) {
+        try {
+            JwtAlgorithm algorithm = JwtAlgorithm.valueOf(publicJwk.getAlgorithm().getName());
+            PublicKey publicKey = switch (publicJwk) {
+                case RSAKey rsaKey -> rsaKey.toRSAPublicKey();
+                case ECKey ecKey -> ecKey.toECPublicKey();
+                case OctetKeyPair octetKeyPair -> KeyFactory.getInstance("Ed25519").generatePublic(
+                        new X509EncodedKeySpec(concat(ED25519_X509_PREFIX, octetKeyPair.getX().decode())));
+                default -> throw new IllegalStateException("Unsupported key type " + publicJwk.getKeyType());
+            };
+            return new VerificationKey(algorithm, publicKey);
+        } catch (JOSEException | GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot read public key " + publicJwk.getKeyID(), e);
+        }
+    }
+
+    private static byte[] rawEd25519Key(PublicKey publicKey) {
+        byte[] encoded = publicKey.getEncoded();
+        return Arrays.copyOfRange(encoded, ED25519_X509_PREFIX.length, encoded.length);
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+}
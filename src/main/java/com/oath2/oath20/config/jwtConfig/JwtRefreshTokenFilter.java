@@ -1,7 +1,6 @@
 package com.oath2.oath20.config.jwtConfig;
 
-import com.oath2.oath20.config.RsaKeyRecord;
-import com.oath2.oath20.repository.RefreshTokenRepository;
+import com.oath2.oath20.service.RefreshTokenService;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -10,25 +9,31 @@ import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.context.SecurityContext;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.oauth2.jwt.Jwt;
 import org.springframework.security.oauth2.jwt.JwtDecoder;
 import org.springframework.security.oauth2.jwt.JwtValidationException;
-import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import org.springframework.security.web.authentication.WebAuthenticationDetailsSource;
 import org.springframework.web.filter.OncePerRequestFilter;
 import org.springframework.web.server.ResponseStatusException;
 
 import java.io.IOException;
+import java.util.List;
 
 @RequiredArgsConstructor
 public class JwtRefreshTokenFilter extends OncePerRequestFilter {
 
-    private final RsaKeyRecord rsaKeyRecord;
+    // authentication of an opaque refresh token, picked up by the resource server instead of decoding the token as a JWT
+    public static final String OPAQUE_REFRESH_AUTHENTICATION = JwtRefreshTokenFilter.class.getName() + ".OPAQUE_AUTHENTICATION";
+    // refresh token row (with its user already fetched) handed to AuthService so the refresh only hits the database once
+    public static final String REFRESH_TOKEN_ENTITY = JwtRefreshTokenFilter.class.getName() + ".REFRESH_TOKEN_ENTITY";
+
+    private final JwtDecoder jwtDecoder;
     private final JwtTokenUtils jwtTokenUtils;
-    private final RefreshTokenRepository refreshTokenRepository;
+    private final RefreshTokenService refreshTokenService;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain) throws ServletException, IOException {
@@ -37,37 +42,45 @@ public class JwtRefreshTokenFilter extends OncePerRequestFilter {
 
             final  String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
 
-            JwtDecoder jwtDecoder = NimbusJwtDecoder.withPublicKey(rsaKeyRecord.rsaPublicKey()).build();
-
-            if (!authHeader.startsWith("Bearer ")){
+            if (authHeader == null || !authHeader.startsWith("Bearer ")){
                 filterChain.doFilter(request, response);
                 return;
             }
 
             final String token = authHeader.substring(7);
-            final Jwt jwtRefreshToken = jwtDecoder.decode(token);
+
+            if (RefreshTokenService.isOpaque(token)) {
+                authenticateOpaqueRefreshToken(request, token);
+                filterChain.doFilter(request, response);
+                return;
+            }
+
+            final Jwt jwtRefreshToken = RequestJwt.decode(request, token, jwtDecoder);
 
             final String userName = jwtTokenUtils.getUserName(jwtRefreshToken);
 
             if (!userName.isEmpty() && SecurityContextHolder.getContext().getAuthentication() == null) {
 
-                var isRefreshTokenValidInDatabase = refreshTokenRepository.findByRefreshToken(jwtRefreshToken.getTokenValue())
-                        .map(refreshTokenEntity -> !refreshTokenEntity.isRevoked())
-                        .orElse(false);
+                var refreshTokenEntity = refreshTokenService.findActiveRefreshToken(jwtRefreshToken.getTokenValue())
+                        .orElse(null);
 
-                UserDetails userDetails = jwtTokenUtils.userDetails(userName);
-                if (jwtTokenUtils.isTokenValid(jwtRefreshToken, userDetails) && isRefreshTokenValidInDatabase) {
-                    SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
+                if (refreshTokenEntity != null) {
+                    request.setAttribute(REFRESH_TOKEN_ENTITY, refreshTokenEntity);
 
-                    UsernamePasswordAuthenticationToken createdToken = new UsernamePasswordAuthenticationToken(
-                            userDetails,
-                            null,
-                            userDetails.getAuthorities()
-                    );
+                    UserDetails userDetails = jwtTokenUtils.userDetails(refreshTokenEntity.getUser());
+                    if (jwtTokenUtils.isTokenValid(jwtRefreshToken, userDetails)) {
+                        SecurityContext securityContext = SecurityContextHolder.createEmptyContext();
 
-                    createdToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
-                    securityContext.setAuthentication(createdToken);
-                    SecurityContextHolder.setContext(securityContext);
+                        UsernamePasswordAuthenticationToken createdToken = new UsernamePasswordAuthenticationToken(
+                                userDetails,
+                                null,
+                                userDetails.getAuthorities()
+                        );
+
+                        createdToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+                        securityContext.setAuthentication(createdToken);
+                        SecurityContextHolder.setContext(securityContext);
+                    }
                 }
             }
             filterChain.doFilter(request, response);
@@ -76,4 +89,21 @@ public class JwtRefreshTokenFilter extends OncePerRequestFilter {
             throw new ResponseStatusException(HttpStatus.NOT_ACCEPTABLE, jwtValidationException.getMessage());
         }
     }
+
+    private void authenticateOpaqueRefreshToken(HttpServletRequest request, String token) {
+
+        refreshTokenService.findActiveRefreshToken(token).ifPresent(refreshTokenEntity -> {
+            request.setAttribute(REFRESH_TOKEN_ENTITY, refreshTokenEntity);
+
+            // same principal and scope the resource server derives from a JWT refresh token
+            UsernamePasswordAuthenticationToken createdToken = new UsernamePasswordAuthenticationToken(
+                    refreshTokenEntity.getUser().getEmailId(),
+                    null,
+                    List.of(new SimpleGrantedAuthority("SCOPE_REFRESH_TOKEN"))
+            );
+
+            createdToken.setDetails(new WebAuthenticationDetailsSource().buildDetails(request));
+            request.setAttribute(OPAQUE_REFRESH_AUTHENTICATION, createdToken);
+        });
+    }
 }
@@ -0,0 +1,74 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.util.Base64;
+
+// a private key prepared for minting: the JWS header is serialized once and every thread keeps its own initialized Signature
+public final class JwtSigningKey {
+
+    private static final Base64.Encoder BASE64_URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final String algorithm;
+    private final String keyId;
+    private final byte[] headerSegment;
+    private final ThreadLocal<Signature> signers;
+
+    public JwtSigningKey(String algorithm, String jcaAlgorithm, String keyId, PrivateKey privateKey) {
+        this.algorithm = algorithm;
+        this.keyId = keyId;
+
+        String header = keyId == null
+                ? "{\"alg\":\"" + algorithm + "\"}"
+                : "{\"alg\":\"" + algorithm + "\",\"kid\":\"" + keyId + "\"}";
+        this.headerSegment = BASE64_URL.encode(header.getBytes(StandardCharsets.UTF_8));
+
+        this.signers = ThreadLocal.withInitial(() -> {
+            try {
+                Signature signature = Signature.getInstance(jcaAlgorithm);
+                signature.initSign(privateKey);
+                return signature;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot prepare " + algorithm + " signer", e);
+            }
+        });
+    }
+
+    public static JwtSigningKey of(JwtAlgorithm algorithm, String keyId, PrivateKey privateKey) {
+        return new JwtSigningKey(algorithm.name(), algorithm.getJcaAlgorithm(), keyId, privateKey);
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getKeyId() {
+        return keyId;
+    }
+
+    // header.payload.signature for the given claims JSON
+    public String sign(String claimsJson) {
+        byte[] payloadSegment = BASE64_URL.encode(claimsJson.getBytes(StandardCharsets.UTF_8));
+
+        byte[] signingInput = new byte[headerSegment.length + 1 + payloadSegment.length];
+        System.arraycopy(headerSegment, 0, signingInput, 0, headerSegment.length);
+        signingInput[headerSegment.length] = '.';
+        System.arraycopy(payloadSegment, 0, signingInput, headerSegment.length + 1, payloadSegment.length);
+
+        try {
+            Signature signer = signers.get();
+            signer.update(signingInput);
+            byte[] signatureSegment = BASE64_URL.encode(signer.sign());
+
+            return new StringBuilder(signingInput.length + 1 + signatureSegment.length)
+                    .append(new String(signingInput, StandardCharsets.US_ASCII))
+                    .append('.')
+                    .append(new String(signatureSegment, StandardCharsets.US_ASCII))
+                    .toString();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Failed to sign token with " + algorithm, e);
+        }
+    }
+}
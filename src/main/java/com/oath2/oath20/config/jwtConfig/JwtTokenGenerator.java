@@ -1,51 +1,74 @@
 package com.oath2.oath20.config.jwtConfig;
 
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.oauth2.jwt.JwtClaimsSet;
-import org.springframework.security.oauth2.jwt.JwtEncoder;
-import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
 import org.springframework.stereotype.Service;
 
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
 @RequiredArgsConstructor
 public class JwtTokenGenerator {
 
-    private final JwtEncoder jwtEncoder;
+    private static final String ISSUER = "uttkarsh";
 
-    public String generateRefreshToken(Authentication authentication){
-        JwtClaimsSet claims = JwtClaimsSet.builder()
-                .issuer("uttkarsh")
-                .issuedAt(Instant.now())
-                .expiresAt(Instant.now().plus(15, ChronoUnit.DAYS))
-                .subject(authentication.getName())
-                .claim("scope", "REFRESH_TOKEN")
-                .build();
+    private final JwtKeyRing jwtKeyRing;
+    private final AuthorizationModel authorizationModel;
 
-        return jwtEncoder.encode(JwtEncoderParameters.from(claims)).getTokenValue();
+    // issuedAt is shared with the access token minted in the same sign-in
+    public String generateRefreshToken(Authentication authentication, Instant issuedAt){
+        return encode(authentication.getName(), AuthorizationModel.REFRESH_TOKEN_SCOPE, issuedAt, issuedAt.plus(15, ChronoUnit.DAYS));
     }
 
-
     public String generateAccessToken(Authentication authentication){
+        return generateAccessToken(authentication, Instant.now());
+    }
+
+    public String generateAccessToken(Authentication authentication, Instant issuedAt){
         String roles = getRolesOfUser(authentication);
         String permissions = getPermissionsFromRoles(roles);
 
-        JwtClaimsSet claims = JwtClaimsSet.builder()
-                .issuer("uttkarsh")
-                .issuedAt(Instant.now())
-                .expiresAt(Instant.now().plus(1, ChronoUnit.MINUTES))
-                .subject(authentication.getName())
-                .claim("scope", permissions)
-                .build();
-        return jwtEncoder.encode(JwtEncoderParameters.from(claims)).getTokenValue();
+        return encode(authentication.getName(), permissions, issuedAt, issuedAt.plus(1, ChronoUnit.MINUTES));
+    }
+
+    // claims are written straight to JSON in the same shape JwtClaimsSet produced, without building the intermediate maps
+    private String encode(String subject, String scope, Instant issuedAt, Instant expiresAt){
+        StringBuilder claims = new StringBuilder(160)
+                .append("{\"iss\":\"").append(ISSUER).append("\",\"sub\":");
+        appendJsonString(claims, subject);
+        claims.append(",\"scope\":");
+        appendJsonString(claims, scope);
+        claims.append(",\"iat\":").append(issuedAt.getEpochSecond())
+                .append(",\"exp\":").append(expiresAt.getEpochSecond())
+                .append('}');
+
+        return jwtKeyRing.currentSigningKey().sign(claims.toString());
+    }
+
+    private static void appendJsonString(StringBuilder json, String value){
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
     }
 
     private static String getRolesOfUser(Authentication authentication){
@@ -57,18 +80,6 @@ public class JwtTokenGenerator {
     }
 
     private String getPermissionsFromRoles(String roles){
-        Set<String> permission = new HashSet<>();
-
-        if (roles.contains("ROLE_ADMIN")){
-            permission.addAll(List.of("READ", "WRITE", "DELETE"));
-        }
-        if (roles.contains("ROLE_MANAGER")){
-            permission.add("READ");
-        }
-        if (roles.contains("ROLE_USER")){
-            permission.add("READ");
-        }
-
-        return String.join(" ", permission);
+        return authorizationModel.compileRoles(roles).scope();
     }
 }
@@ -1,7 +1,9 @@
 package com.oath2.oath20.config.jwtConfig;
 
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
 import com.oath2.oath20.config.userConfig.UserInfoConfig;
-import com.oath2.oath20.repository.UserInfoRepository;
+import com.oath2.oath20.config.userConfig.UserPrincipalCache;
+import com.oath2.oath20.entity.UserInfoEntity;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
@@ -15,7 +17,8 @@ import java.util.Objects;
 @RequiredArgsConstructor
 public class JwtTokenUtils {
 
-    private final UserInfoRepository useruserInfoRepo;
+    private final UserPrincipalCache userPrincipalCache;
+    private final AuthorizationModel authorizationModel;
 
     public String getUserName(Jwt jwtToken){
 
@@ -38,9 +41,13 @@ public class JwtTokenUtils {
 
     public UserDetails userDetails(String emailId){
 
-        return useruserInfoRepo
-                .findByEmailId(emailId)
-                .map(UserInfoConfig::new)
+        return userPrincipalCache
+                .findUserDetails(emailId)
                 .orElseThrow(()-> new UsernameNotFoundException("UserEmail: "+emailId+" does not exist"));
     }
+
+    public UserDetails userDetails(UserInfoEntity userInfoEntity){
+
+        return new UserInfoConfig(userInfoEntity, authorizationModel.compileRoles(userInfoEntity.getRoles()).roleAuthorities());
+    }
 }
@@ -0,0 +1,61 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jwt.SignedJWT;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.security.oauth2.core.OAuth2TokenValidator;
+import org.springframework.security.oauth2.core.OAuth2TokenValidatorResult;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.JwtValidationException;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.MappedJwtClaimSetConverter;
+
+import java.text.ParseException;
+import java.util.Collections;
+import java.util.Map;
+
+//  picks the verification key by the token's kid from the key ring, then converts and validates claims the same way NimbusJwtDecoder does
+@RequiredArgsConstructor
+public class KeyRingJwtDecoder implements JwtDecoder {
+
+    private final JwtKeyRing jwtKeyRing;
+    private final Converter<Map<String, Object>, Map<String, Object>> claimSetConverter = MappedJwtClaimSetConverter.withDefaults(Collections.emptyMap());
+    private final OAuth2TokenValidator<Jwt> jwtValidator = JwtValidators.createDefault();
+
+    @Override
+    public Jwt decode(String token) throws JwtException {
+        final SignedJWT signedJwt;
+        final Map<String, Object> claims;
+        try {
+            signedJwt = SignedJWT.parse(token);
+            claims = claimSetConverter.convert(signedJwt.getJWTClaimsSet().getClaims());
+        } catch (ParseException e) {
+            throw new BadJwtException("Malformed token: " + e.getMessage(), e);
+        }
+
+        final JWSHeader header = signedJwt.getHeader();
+        var verificationKey = jwtKeyRing.findVerificationKey(header.getKeyID())
+                .orElseThrow(() -> new BadJwtException("Unknown signing key: " + header.getKeyID()));
+
+        if (!verificationKey.algorithm().name().equals(header.getAlgorithm().getName())
+                || !verificationKey.verify(signedJwt.getSigningInput(), signedJwt.getSignature().decode())) {
+            throw new BadJwtException("Invalid token signature");
+        }
+
+        Jwt jwt = Jwt.withTokenValue(token)
+                .headers(headers -> headers.putAll(header.toJSONObject()))
+                .claims(jwtClaims -> jwtClaims.putAll(claims))
+                .build();
+
+        OAuth2TokenValidatorResult validationResult = jwtValidator.validate(jwt);
+        if (validationResult.hasErrors()) {
+            String description = validationResult.getErrors().iterator().next().getDescription();
+            throw new JwtValidationException("Invalid token: " + description, validationResult.getErrors());
+        }
+        return jwt;
+    }
+}
@@ -0,0 +1,24 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+
+// the bearer token is decoded once per request and the parsed Jwt is shared with every later filter through a request attribute
+public final class RequestJwt {
+
+    public static final String ATTRIBUTE = RequestJwt.class.getName() + ".JWT";
+
+    private RequestJwt() {
+    }
+
+    public static Jwt decode(HttpServletRequest request, String token, JwtDecoder jwtDecoder) {
+        if (request.getAttribute(ATTRIBUTE) instanceof Jwt jwt && jwt.getTokenValue().equals(token)) {
+            return jwt;
+        }
+
+        final Jwt decodedJwt = jwtDecoder.decode(token);
+        request.setAttribute(ATTRIBUTE, decodedJwt);
+        return decodedJwt;
+    }
+}
@@ -0,0 +1,54 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import com.oath2.oath20.service.RefreshTokenService;
+import jakarta.servlet.http.HttpServletRequest;
+import lombok.RequiredArgsConstructor;
+import org.springframework.security.authentication.AbstractAuthenticationToken;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationManagerResolver;
+import org.springframework.security.authentication.AuthenticationServiceException;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jwt.BadJwtException;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.server.resource.InvalidBearerTokenException;
+import org.springframework.security.oauth2.server.resource.authentication.BearerTokenAuthenticationToken;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+
+//  same result as oauth2ResourceServer(jwt), but reuses the Jwt our own filters already decoded for this request instead of verifying it again
+@RequiredArgsConstructor
+public class RequestJwtAuthenticationManagerResolver implements AuthenticationManagerResolver<HttpServletRequest> {
+
+    private final JwtDecoder jwtDecoder;
+    private final JwtAuthenticationConverter jwtAuthenticationConverter;
+
+    @Override
+    public AuthenticationManager resolve(HttpServletRequest request) {
+        return authentication -> {
+            BearerTokenAuthenticationToken bearerToken = (BearerTokenAuthenticationToken) authentication;
+
+            if (RefreshTokenService.isOpaque(bearerToken.getToken())) {
+                if (request.getAttribute(JwtRefreshTokenFilter.OPAQUE_REFRESH_AUTHENTICATION) instanceof Authentication refreshAuthentication) {
+                    return refreshAuthentication;
+                }
+                throw new InvalidBearerTokenException("Invalid or revoked refresh token");
+            }
+
+            final Jwt jwt;
+            try {
+                jwt = RequestJwt.decode(request, bearerToken.getToken(), jwtDecoder);
+            } catch (BadJwtException badJwtException) {
+                throw new InvalidBearerTokenException(badJwtException.getMessage(), badJwtException);
+            } catch (JwtException jwtException) {
+                throw new AuthenticationServiceException(jwtException.getMessage(), jwtException);
+            }
+
+            AbstractAuthenticationToken authenticatedToken = jwtAuthenticationConverter.convert(jwt);
+            if (authenticatedToken.getDetails() == null) {
+                authenticatedToken.setDetails(bearerToken.getDetails());
+            }
+            return authenticatedToken;
+        };
+    }
+}
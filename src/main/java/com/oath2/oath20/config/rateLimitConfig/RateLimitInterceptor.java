@@ -0,0 +1,65 @@
+package com.oath2.oath20.config.rateLimitConfig;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.servlet.HandlerInterceptor;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+// enforces @RateLimited before the controller runs and reports the tightest bucket in RateLimit-* headers
+@Component
+@RequiredArgsConstructor
+public class RateLimitInterceptor implements HandlerInterceptor {
+
+    private final RedisRateLimiter redisRateLimiter;
+    private final RateLimitProperties rateLimitProperties;
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws IOException {
+        if (!(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        RateLimited rateLimited = handlerMethod.getMethodAnnotation(RateLimited.class);
+        if (rateLimited == null) {
+            return true;
+        }
+
+        // the policy is the hash tag: one script charges an IP and an email bucket together, so on a redis cluster all
+        // buckets of a policy share a slot (an IP bucket is shared by many emails, no narrower tag would hold both)
+        List<String> bucketKeys = new ArrayList<>(rateLimited.keys().length);
+        for (RateLimitKey key : rateLimited.keys()) {
+            String value = key.resolve(request);
+            if (value != null) {
+                bucketKeys.add("rate:{" + rateLimited.value() + "}:" + key.name().toLowerCase() + ":" + value);
+            }
+        }
+        if (bucketKeys.isEmpty()) {
+            return true;
+        }
+
+        RedisRateLimiter.Decision decision = redisRateLimiter.tryAcquire(rateLimited.value(),
+                rateLimitProperties.policy(rateLimited.value()), bucketKeys);
+
+        response.setHeader("RateLimit-Limit", String.valueOf(decision.limit()));
+        response.setHeader("RateLimit-Remaining", String.valueOf(decision.remaining()));
+        response.setHeader("RateLimit-Reset", String.valueOf(decision.resetSeconds()));
+
+        if (!decision.allowed()) {
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf(decision.resetSeconds()));
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setContentType(MediaType.TEXT_PLAIN_VALUE);
+            response.getWriter().write("Rate limit exceeded. Please try again later.");
+            return false;
+        }
+        return true;
+    }
+}
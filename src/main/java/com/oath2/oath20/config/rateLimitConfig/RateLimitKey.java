@@ -0,0 +1,27 @@
+package com.oath2.oath20.config.rateLimitConfig;
+
+import jakarta.servlet.http.HttpServletRequest;
+
+import java.util.Locale;
+
+public enum RateLimitKey {
+
+    // the client address as seen by tomcat, behind a proxy set server.forward-headers-strategy so it is the real client
+    IP {
+        @Override
+        public String resolve(HttpServletRequest request) {
+            return request.getRemoteAddr();
+        }
+    },
+
+    // the account the request is about; requests without an email parameter are only limited by their other keys
+    EMAIL {
+        @Override
+        public String resolve(HttpServletRequest request) {
+            String email = request.getParameter("email");
+            return email == null || email.isBlank() ? null : email.trim().toLowerCase(Locale.ROOT);
+        }
+    };
+
+    public abstract String resolve(HttpServletRequest request);
+}
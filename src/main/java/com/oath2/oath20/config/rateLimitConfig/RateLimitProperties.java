@@ -0,0 +1,30 @@
+package com.oath2.oath20.config.rateLimitConfig;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+import java.time.Duration;
+import java.util.Map;
+
+//  token bucket per policy, e.g. rate-limit.policies.sign-up.capacity=5 and rate-limit.policies.sign-up.refill-period=PT10M
+//  refills `capacity` tokens evenly over `refill-period`. A non-zero `local-lease` lets a node take that many extra tokens
+//  from a bucket that is far from empty and spend them without going to redis
+@ConfigurationProperties(prefix = "rate-limit")
+public record RateLimitProperties(Map<String, Policy> policies) {
+
+    public RateLimitProperties {
+        if (policies == null) {
+            policies = Map.of();
+        }
+    }
+
+    public record Policy(long capacity, Duration refillPeriod, long localLease) {
+    }
+
+    public Policy policy(String name) {
+        Policy policy = policies.get(name);
+        if (policy == null) {
+            throw new IllegalStateException("No rate-limit.policies." + name + " configured");
+        }
+        return policy;
+    }
+}
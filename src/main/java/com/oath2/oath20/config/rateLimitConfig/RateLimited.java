@@ -0,0 +1,16 @@
+package com.oath2.oath20.config.rateLimitConfig;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+// applies the named rate-limit.policies entry to a controller method, with one bucket per key
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+public @interface RateLimited {
+
+    String value();
+
+    RateLimitKey[] keys() default {RateLimitKey.IP};
+}
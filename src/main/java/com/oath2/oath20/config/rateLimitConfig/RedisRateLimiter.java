@@ -0,0 +1,125 @@
+package com.oath2.oath20.config.rateLimitConfig;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+//  token buckets shared by every node. One script call refills, checks and charges all the buckets of a request at once,
+//  using the redis clock so nodes with skewed clocks agree on the refill.
+//  when redis is unreachable requests are let through: the limiter protects the service, it must not take sign-up down
+@Component
+public class RedisRateLimiter {
+    private static final Logger logger = LoggerFactory.getLogger(RedisRateLimiter.class);
+
+    // KEYS: buckets. ARGV: capacity, refill period (ms), local lease.
+    // returns {allowed, remaining, ms until the next token, leased tokens}
+    @SuppressWarnings("rawtypes")
+    private static final RedisScript<List> TAKE_TOKEN = new DefaultRedisScript<>("""
+            local capacity = tonumber(ARGV[1])
+            local period = tonumber(ARGV[2])
+            local lease = tonumber(ARGV[3])
+            local rate = capacity / period
+            local time = redis.call('TIME')
+            local now = tonumber(time[1]) * 1000 + math.floor(tonumber(time[2]) / 1000)
+
+            local tokens = {}
+            local lowest = capacity
+            for i, key in ipairs(KEYS) do
+                local bucket = redis.call('HMGET', key, 'tokens', 'ts')
+                local available = tonumber(bucket[1]) or capacity
+                local updatedAt = tonumber(bucket[2]) or now
+                available = math.min(capacity, available + math.max(0, now - updatedAt) * rate)
+                tokens[i] = available
+                lowest = math.min(lowest, available)
+            end
+
+            local allowed = lowest >= 1 and 1 or 0
+            local charge = 0
+            local leased = 0
+            if allowed == 1 then
+                charge = 1
+                if lease > 0 and lowest - 1 >= 2 * lease then
+                    leased = lease
+                    charge = 1 + lease
+                end
+            end
+
+            for i, key in ipairs(KEYS) do
+                redis.call('HSET', key, 'tokens', tokens[i] - charge, 'ts', now)
+                redis.call('PEXPIRE', key, period)
+            end
+
+            local waitMillis = 0
+            if allowed == 0 then
+                waitMillis = math.ceil((1 - lowest) / rate)
+            end
+            return {allowed, math.floor(lowest - charge), waitMillis, leased}
+            """, List.class);
+
+    private final StringRedisTemplate redisTemplate;
+    // tokens this node already took from redis, per bucket set; unused ones are simply dropped when the lease expires
+    private final Cache<String, AtomicLong> leasedTokens;
+
+    public record Decision(boolean allowed, long limit, long remaining, long resetSeconds) {
+    }
+
+    public RedisRateLimiter(StringRedisTemplate redisTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${rate-limit.local-lease-ttl:PT1S}") Duration leaseTtl) {
+        this.redisTemplate = redisTemplate;
+        this.leasedTokens = Caffeine.newBuilder()
+                .maximumSize(10_000)
+                .expireAfterWrite(leaseTtl)
+                .build();
+        meterRegistry.gauge("rate.limit.leases", leasedTokens, cache -> cache.estimatedSize());
+    }
+
+    public Decision tryAcquire(String policyName, RateLimitProperties.Policy policy, List<String> bucketKeys) {
+        final String leaseKey = policyName + "|" + String.join("|", bucketKeys);
+        AtomicLong lease = leasedTokens.getIfPresent(leaseKey);
+        if (lease != null) {
+            long left = lease.decrementAndGet();
+            if (left >= 0) {
+                return new Decision(true, policy.capacity(), left, 0);
+            }
+            leasedTokens.invalidate(leaseKey);
+        }
+
+        final List<?> result;
+        try {
+            result = redisTemplate.execute(TAKE_TOKEN, bucketKeys,
+                    String.valueOf(policy.capacity()),
+                    String.valueOf(policy.refillPeriod().toMillis()),
+                    String.valueOf(policy.localLease()));
+        } catch (DataAccessException e) {
+            logger.warn("Rate limit check for {} failed, letting the request through", policyName, e);
+            return new Decision(true, policy.capacity(), policy.capacity(), 0);
+        }
+
+        boolean allowed = toLong(result.get(0)) == 1;
+        long remaining = Math.max(0, toLong(result.get(1)));
+        long waitMillis = toLong(result.get(2));
+        long leased = toLong(result.get(3));
+
+        if (leased > 0) {
+            leasedTokens.put(leaseKey, new AtomicLong(leased));
+        }
+        return new Decision(allowed, policy.capacity(), remaining, (waitMillis + 999) / 1000);
+    }
+
+    private static long toLong(Object value) {
+        return value instanceof Number number ? number.longValue() : Long.parseLong(value.toString());
+    }
+}
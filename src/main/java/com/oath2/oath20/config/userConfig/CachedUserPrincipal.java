@@ -0,0 +1,25 @@
+package com.oath2.oath20.config.userConfig;
+
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
+import com.oath2.oath20.entity.UserInfoEntity;
+
+//  the part of UserInfoEntity that authenticated requests need, small enough to keep in the shared principal cache.
+//  The password hash is left out, it would sit in redis as plain JSON; sign-in loads it from the database instead
+public record CachedUserPrincipal(String emailId, String roles, boolean enabled) {
+
+    public static CachedUserPrincipal from(UserInfoEntity userInfoEntity) {
+        return new CachedUserPrincipal(
+                userInfoEntity.getEmailId(),
+                userInfoEntity.getRoles(),
+                userInfoEntity.isEnabled()
+        );
+    }
+
+    public UserInfoConfig toUserDetails(AuthorizationModel authorizationModel) {
+        UserInfoEntity userInfoEntity = new UserInfoEntity();
+        userInfoEntity.setEmailId(emailId);
+        userInfoEntity.setRoles(roles);
+        userInfoEntity.setEnabled(enabled);
+        return new UserInfoConfig(userInfoEntity, authorizationModel.compileRoles(roles).roleAuthorities());
+    }
+}
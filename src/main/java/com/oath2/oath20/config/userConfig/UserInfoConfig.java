@@ -3,10 +3,8 @@ package com.oath2.oath20.config.userConfig;
 import com.oath2.oath20.entity.UserInfoEntity;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.GrantedAuthority;
-import org.springframework.security.core.authority.SimpleGrantedAuthority;
 import org.springframework.security.core.userdetails.UserDetails;
 
-import java.util.Arrays;
 import java.util.Collection;
 
 //mapping the user with auth object
@@ -14,15 +12,12 @@ import java.util.Collection;
 public class UserInfoConfig implements UserDetails {
 
     private final UserInfoEntity userInfoEntity;
+    // precompiled by AuthorizationModel for the user's role combination
+    private final Collection<? extends GrantedAuthority> authorities;
 
     @Override
     public Collection<? extends GrantedAuthority> getAuthorities() {
-        return Arrays
-                .stream(userInfoEntity
-                        .getRoles()
-                        .split(","))
-                .map(SimpleGrantedAuthority::new)
-                .toList();
+        return authorities;
     }
 
     @Override
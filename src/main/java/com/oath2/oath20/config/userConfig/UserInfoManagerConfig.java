@@ -1,6 +1,5 @@
 package com.oath2.oath20.config.userConfig;
 
-import com.oath2.oath20.repository.UserInfoRepository;
 import lombok.RequiredArgsConstructor;
 import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.security.core.userdetails.UserDetailsService;
@@ -13,13 +12,13 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class UserInfoManagerConfig implements UserDetailsService {
 
-    private final UserInfoRepository userInfoRepository;
+    private final UserPrincipalCache userPrincipalCache;
 
     @Override
     public UserDetails loadUserByUsername(String emailId) throws UsernameNotFoundException {
-        return userInfoRepository
-                .findByEmailId(emailId)
-                .map(UserInfoConfig::new)
+        // used where the password is checked, so it bypasses the cached principal
+        return userPrincipalCache
+                .loadUserDetailsWithPassword(emailId)
                 .orElseThrow(()-> new UsernameNotFoundException("Username not found!!"));
     }
 }
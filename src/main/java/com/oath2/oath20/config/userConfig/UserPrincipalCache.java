@@ -0,0 +1,63 @@
+package com.oath2.oath20.config.userConfig;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
+import com.oath2.oath20.redis.CacheInvalidationBus;
+import com.oath2.oath20.redis.TwoTierCache;
+import com.oath2.oath20.repository.UserInfoRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.Optional;
+
+// principal lookups for every authenticated request, invalidate(emailId) whenever a user's enabled flag or roles change
+@Component
+public class UserPrincipalCache {
+
+    private final UserInfoRepository userInfoRepository;
+    private final AuthorizationModel authorizationModel;
+    private final TwoTierCache<CachedUserPrincipal> principalCache;
+
+    public UserPrincipalCache(UserInfoRepository userInfoRepository,
+                              AuthorizationModel authorizationModel,
+                              StringRedisTemplate redisTemplate,
+                              ObjectMapper objectMapper,
+                              CacheInvalidationBus cacheInvalidationBus,
+                              MeterRegistry meterRegistry,
+                              @Value("${user-principal.cache.maximum-size:10000}") long maximumSize,
+                              @Value("${user-principal.cache.local-ttl:PT30S}") Duration localTtl,
+                              @Value("${user-principal.cache.shared-ttl:PT5M}") Duration sharedTtl) {
+        this.userInfoRepository = userInfoRepository;
+        this.authorizationModel = authorizationModel;
+        this.principalCache = new TwoTierCache<>("userPrincipal", CachedUserPrincipal.class, maximumSize,
+                localTtl, sharedTtl, redisTemplate, objectMapper, cacheInvalidationBus, meterRegistry);
+    }
+
+    public Optional<UserDetails> findUserDetails(String emailId) {
+        return Optional.ofNullable(principalCache.get(emailId, this::loadPrincipal))
+                .map(principal -> principal.toUserDetails(authorizationModel));
+    }
+
+    // sign-in only: the password hash never enters the cache, it is read from the database every time
+    public Optional<UserDetails> loadUserDetailsWithPassword(String emailId) {
+        return userInfoRepository
+                .findByEmailId(emailId)
+                .map(userInfoEntity -> new UserInfoConfig(userInfoEntity,
+                        authorizationModel.compileRoles(userInfoEntity.getRoles()).roleAuthorities()));
+    }
+
+    public void invalidate(String emailId) {
+        principalCache.invalidate(emailId);
+    }
+
+    private CachedUserPrincipal loadPrincipal(String emailId) {
+        return userInfoRepository
+                .findByEmailId(emailId)
+                .map(CachedUserPrincipal::from)
+                .orElse(null);
+    }
+}
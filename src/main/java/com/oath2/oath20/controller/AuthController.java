@@ -1,13 +1,18 @@
 package com.oath2.oath20.controller;
 
+import com.oath2.oath20.config.concurrencyLimitConfig.ConcurrencyLimited;
+import com.oath2.oath20.config.jwtConfig.JwtRefreshTokenFilter;
+import com.oath2.oath20.config.rateLimitConfig.RateLimitKey;
+import com.oath2.oath20.config.rateLimitConfig.RateLimited;
 import com.oath2.oath20.config.userConfig.UserInfoManagerConfig;
 import com.oath2.oath20.dto.AuthResponseDto;
 import com.oath2.oath20.dto.UserRegistrationDto;
 import com.oath2.oath20.dto.UserSignInDto;
+import com.oath2.oath20.entity.RefreshTokenEntity;
 import com.oath2.oath20.entity.UserInfoEntity;
 import com.oath2.oath20.service.AuthService;
 import com.oath2.oath20.service.OtpService;
-import io.github.resilience4j.ratelimiter.annotation.RateLimiter;
+import com.oath2.oath20.service.PasswordHashingService;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
@@ -20,7 +25,6 @@ import org.springframework.security.authentication.UsernamePasswordAuthenticatio
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.security.core.userdetails.UserDetails;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
 
@@ -31,17 +35,18 @@ import java.util.List;
 public class AuthController {
 
     private final AuthService authService;
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingService passwordHashingService;
     private final UserInfoManagerConfig userInfoManagerConfig;
     private final OtpService otpService;
 
     @PostMapping("/sign-in")
+    @ConcurrencyLimited("sign-in")
     public ResponseEntity<?> authenticateUser(@RequestBody UserSignInDto signInRequest, HttpServletResponse response) {
         // Fetch the user details using UserDetailsService
         UserDetails userDetails = userInfoManagerConfig.loadUserByUsername(signInRequest.getEmail());
 
         // Check if the password matches
-        if (!passwordEncoder.matches(signInRequest.getPassword(), userDetails.getPassword())) {
+        if (!passwordHashingService.matches(signInRequest.getPassword(), userDetails.getPassword())) {
             return ResponseEntity.status(HttpStatus.UNAUTHORIZED).body("Invalid email or password");
         }
 
@@ -50,6 +55,9 @@ public class AuthController {
             return ResponseEntity.status(HttpStatus.FORBIDDEN).body("Account not verified. Please verify your email.");
         }
 
+        // Move the stored hash to the current algorithm/cost while we still have the raw password
+        authService.upgradePasswordHashIfNeeded(userDetails, signInRequest.getPassword());
+
         // Create authentication token
         Authentication authentication = new UsernamePasswordAuthenticationToken(userDetails.getUsername(), null, userDetails.getAuthorities());
         SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -59,7 +67,8 @@ public class AuthController {
     }
 
     @PostMapping("/sign-up")
-    @RateLimiter(name = "default")
+    @ConcurrencyLimited("sign-up")
+    @RateLimited("sign-up")
     public ResponseEntity<?> registerUser(@Valid @RequestBody UserRegistrationDto userRegistrationDto, BindingResult bindingResult, HttpServletResponse httpServletResponse) {
         if (bindingResult.hasErrors()) {
             List<String> errorMessage = bindingResult.getAllErrors().stream()
@@ -74,7 +83,7 @@ public class AuthController {
     }
 
     @PostMapping("/verify-otp")
-    @RateLimiter(name = "default")
+    @RateLimited(value = "verify-otp", keys = {RateLimitKey.IP, RateLimitKey.EMAIL})
     public ResponseEntity<?> verifyOtp(@RequestParam String email, @RequestParam String otp) {
         boolean isValid = otpService.verifyOtp(email, otp);
         if (isValid) {
@@ -86,7 +95,7 @@ public class AuthController {
     }
 
     @PostMapping("/resend-otp")
-    @RateLimiter(name = "default")
+    @RateLimited(value = "resend-otp", keys = {RateLimitKey.IP, RateLimitKey.EMAIL})
     public ResponseEntity<?> resendOtp(@RequestParam String email) {
         otpService.generateAndSendOtp(email);
         return ResponseEntity.ok("New OTP sent to your email.");
@@ -94,7 +103,9 @@ public class AuthController {
 
     @PreAuthorize("hasAuthority('SCOPE_REFRESH_TOKEN')")
     @PostMapping("/refresh-token")
-    public ResponseEntity<?> getAccessToken(@RequestHeader(HttpHeaders.AUTHORIZATION) String authorizationHeader) {
-        return ResponseEntity.ok(authService.getAccessTokenUsingRefreshToken(authorizationHeader));
+    @ConcurrencyLimited("refresh-token")
+    public ResponseEntity<?> getAccessToken(@RequestHeader(HttpHeaders.AUTHORIZATION) String authorizationHeader,
+                                            @RequestAttribute(name = JwtRefreshTokenFilter.REFRESH_TOKEN_ENTITY, required = false) RefreshTokenEntity refreshTokenEntity) {
+        return ResponseEntity.ok(authService.getAccessTokenUsingRefreshToken(authorizationHeader, refreshTokenEntity));
     }
 }
\ No newline at end of file
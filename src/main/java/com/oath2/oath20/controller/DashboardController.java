@@ -14,20 +14,20 @@ import java.security.Principal;
 @RequestMapping("/api")
 public class DashboardController {
 
-    @PreAuthorize("hasAuthority('SCOPE_READ')")
+    @PreAuthorize("@authorizationModel.hasScope(authentication, 'READ')")
     @GetMapping("welcome-message")
     public ResponseEntity<String> getFirstWelcomeMessage(Authentication authentication){
         System.out.println(authentication.getAuthorities()+ " "+ authentication.getCredentials() );
         return ResponseEntity.ok("Welcome to JWT oauth2.0:: "+ authentication.getName() + " with scope: " + authentication.getAuthorities());
     }
 
-    @PreAuthorize("hasAuthority('SCOPE_WRITE')")
+    @PreAuthorize("@authorizationModel.hasScope(authentication, 'WRITE')")
     @GetMapping("/admin-message")
     public ResponseEntity<String> getAdminData(@RequestParam("message")String message, Principal principal){
         return ResponseEntity.ok("Admin :: " + principal.getName()+ " has this message: " + message);
     }
 
-    @PreAuthorize("hasAuthority('SCOPE_READ')")
+    @PreAuthorize("@authorizationModel.hasScope(authentication, 'READ')")
     @GetMapping("manager")
     public ResponseEntity<String> getManagerData(Principal principal){
         return ResponseEntity.ok("Manager :: " + principal.getName());
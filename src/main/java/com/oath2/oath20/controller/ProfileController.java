@@ -1,12 +1,17 @@
 package com.oath2.oath20.controller;
 
+import com.oath2.oath20.dto.PictureUploadDto;
+import com.oath2.oath20.dto.PictureUploadStatusDto;
 import com.oath2.oath20.dto.ProfileDto;
 import com.oath2.oath20.service.ProfileService;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
 @RestController
 @RequestMapping("/api/profile")
@@ -47,9 +52,48 @@ public class ProfileController {
             return ResponseEntity.ok(updatedProfile);
         } catch (UsernameNotFoundException e) {
             return ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            // rejected by upload validation, nothing was decoded or stored
+            return ResponseEntity.badRequest().body(null);
+        } catch (ResponseStatusException e) {
+            // upload executor saturated or timed out
+            return ResponseEntity.status(e.getStatusCode()).body(null);
+        } catch (CallNotPermittedException | BulkheadFullException e) {
+            // storage unavailable, answered with 503 and Retry-After by GlobalExceptionHandler
+            throw e;
         } catch (Exception e) {
             return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(null);
         }
     }
-}
 
+    @PostMapping("/{username}/picture/uploads")
+    public ResponseEntity<PictureUploadDto> startPictureUpload(@PathVariable String username) {
+        try {
+            return ResponseEntity.ok(profileService.startPictureUpload(username));
+        } catch (UsernameNotFoundException e) {
+            return ResponseEntity.notFound().build();
+        } catch (ResponseStatusException e) {
+            // the storage backend cannot presign uploads
+            return ResponseEntity.status(e.getStatusCode()).body(null);
+        }
+    }
+
+    // 202: processing continues in the background, poll the status until DONE or FAILED
+    @PostMapping("/{username}/picture/uploads/{uploadId}/complete")
+    public ResponseEntity<PictureUploadStatusDto> completePictureUpload(@PathVariable String username, @PathVariable String uploadId) {
+        try {
+            return ResponseEntity.accepted().body(profileService.completePictureUpload(username, uploadId));
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(null);
+        }
+    }
+
+    @GetMapping("/{username}/picture/uploads/{uploadId}")
+    public ResponseEntity<PictureUploadStatusDto> getPictureUploadStatus(@PathVariable String username, @PathVariable String uploadId) {
+        try {
+            return ResponseEntity.ok(profileService.getPictureUploadStatus(username, uploadId));
+        } catch (ResponseStatusException e) {
+            return ResponseEntity.status(e.getStatusCode()).body(null);
+        }
+    }
+}
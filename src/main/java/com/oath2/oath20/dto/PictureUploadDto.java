@@ -0,0 +1,11 @@
+package com.oath2.oath20.dto;
+
+import java.time.Instant;
+
+// the client PUTs the JPEG to uploadUrl (Content-Type: image/jpeg) before expiresAt, then completes the upload
+public record PictureUploadDto(
+        String uploadId,
+        String uploadUrl,
+        Instant expiresAt
+) {
+}
@@ -0,0 +1,5 @@
+package com.oath2.oath20.dto;
+
+public enum PictureUploadState {
+    AWAITING_UPLOAD, QUEUED, PROCESSING, DONE, FAILED
+}
@@ -0,0 +1,9 @@
+package com.oath2.oath20.dto;
+
+public record PictureUploadStatusDto(
+        String uploadId,
+        PictureUploadState state,
+        String profilePictureUrl,
+        String error
+) {
+}
@@ -6,21 +6,32 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 
+import java.time.Instant;
+
 @Entity
 @Data
 @Builder
 @NoArgsConstructor
 @AllArgsConstructor
-@Table(name = "REFRESH_TOKENS")
+@Table(name = "REFRESH_TOKENS",
+        indexes = @Index(name = "UK_REFRESH_TOKENS_TOKEN_HASH", columnList = "TOKEN_HASH", unique = true))
 public class RefreshTokenEntity {
 
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
     private Long id;
 
-    @Column(name = "REFRESH_TOKEN", nullable = false, length = 10000)
+    // only set for JWT refresh tokens issued before TOKEN_HASH existed, looked up during the migration window
+    @Column(name = "REFRESH_TOKEN", length = 10000)
     private String refreshToken;
 
+    // hex SHA-256 of the token handed to the client, the token itself is never stored
+    @Column(name = "TOKEN_HASH", length = 64)
+    private String tokenHash;
+
+    @Column(name = "EXPIRES_AT")
+    private Instant expiresAt;
+
     @Column(name = "REVOKED")
     private boolean revoked;
 
@@ -11,7 +11,7 @@ import java.util.List;
 @AllArgsConstructor
 @NoArgsConstructor
 @Entity
-@Table(name = "USER_INFO")
+@Table(name = "USER_INFO", indexes = @Index(name = "IDX_USER_INFO_PROFILE_PICTURE_KEY", columnList = "PROFILE_PICTURE_KEY"))
 public class UserInfoEntity {
     @Id
     @GeneratedValue(strategy = GenerationType.IDENTITY)
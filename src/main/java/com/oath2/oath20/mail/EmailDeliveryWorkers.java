@@ -0,0 +1,311 @@
+package com.oath2.oath20.mail;
+
+import com.oath2.oath20.service.EmailService;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+//  consumers of the outbox stream, each polling batches of up to `batch-size` entries on its own virtual thread
+//  and sending a batch over one pooled SMTP connection.
+//  consumer names are stable per host, so after a restart a node first re-delivers what it had read but not acknowledged.
+//  Entries left pending on a consumer that never comes back (a replaced host) are claimed by any worker once they were
+//  idle for `reclaim-idle`, and dead-lettered once they were delivered `max-deliveries` times
+@Component
+public class EmailDeliveryWorkers {
+    private static final Logger logger = LoggerFactory.getLogger(EmailDeliveryWorkers.class);
+
+    private static final String GROUP = "mail-delivery";
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(2);
+    // pending entries looked at per reclaim, oldest first
+    private static final int PENDING_SCAN = 100;
+
+    private final StringRedisTemplate redisTemplate;
+    private final EmailOutbox emailOutbox;
+    private final EmailService emailService;
+    private final int workers;
+    private final int batchSize;
+    private final String consumerName;
+    private final Duration reclaimIdle;
+    private final Duration reclaimInterval;
+    private final long maxDeliveries;
+    private final Counter delivered;
+    private final CircuitBreaker smtpCircuitBreaker;
+
+    private ExecutorService workerExecutor;
+    private volatile boolean running = true;
+
+    public EmailDeliveryWorkers(StringRedisTemplate redisTemplate,
+                                EmailOutbox emailOutbox,
+                                EmailService emailService,
+                                MeterRegistry meterRegistry,
+                                CircuitBreakerRegistry circuitBreakerRegistry,
+                                @Value("${mail.outbox.workers:4}") int workers,
+                                @Value("${mail.outbox.batch-size:10}") int batchSize,
+                                @Value("${mail.outbox.consumer-name:}") String consumerName,
+                                @Value("${mail.outbox.reclaim-idle:PT5M}") Duration reclaimIdle,
+                                @Value("${mail.outbox.reclaim-interval:PT1M}") Duration reclaimInterval,
+                                @Value("${mail.outbox.max-deliveries:5}") long maxDeliveries) {
+        this.redisTemplate = redisTemplate;
+        this.emailOutbox = emailOutbox;
+        this.emailService = emailService;
+        this.workers = workers;
+        this.batchSize = batchSize;
+        this.consumerName = consumerName.isBlank() ? hostName() : consumerName;
+        this.reclaimIdle = reclaimIdle;
+        this.reclaimInterval = reclaimInterval;
+        this.maxDeliveries = maxDeliveries;
+        this.smtpCircuitBreaker = circuitBreakerRegistry.circuitBreaker("smtp");
+        this.delivered = Counter.builder("mail.outbox.messages").tag("event", "delivered").register(meterRegistry);
+    }
+
+    @PostConstruct
+    void start() {
+        createGroup();
+
+        workerExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("mail-worker-", 0).factory());
+        for (int i = 0; i < workers; i++) {
+            Consumer consumer = Consumer.from(GROUP, consumerName + "-" + i);
+            workerExecutor.execute(() -> poll(consumer));
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        workerExecutor.close();
+    }
+
+    //  starts from "0", which replays the entries this consumer read before a crash or restart but never
+    //  acknowledged; once those are drained it switches to ">" and blocks for new entries
+    private void poll(Consumer consumer) {
+        ReadOffset offset = ReadOffset.from("0");
+        boolean replayingPending = true;
+        long nextReclaimNanos = System.nanoTime();
+        while (running) {
+            // while SMTP is failing, leave the entries in the stream rather than burning their retry attempts
+            if (!smtpCircuitBreaker.tryAcquirePermission()) {
+                pause();
+                continue;
+            }
+
+            try {
+                List<MapRecord<String, Object, Object>> records;
+                if (!replayingPending && System.nanoTime() - nextReclaimNanos >= 0) {
+                    nextReclaimNanos = System.nanoTime() + reclaimInterval.toNanos();
+                    records = claimAbandoned(consumer);
+                    if (records.isEmpty()) {
+                        smtpCircuitBreaker.releasePermission();
+                        continue;
+                    }
+                    // claimed entries are pending on this consumer now, delivering them is the same as a replay
+                    deliverOrPark(records);
+                    continue;
+                }
+
+                records = redisTemplate.opsForStream().read(consumer,
+                        StreamReadOptions.empty().count(batchSize).block(POLL_TIMEOUT),
+                        StreamOffset.create(EmailOutbox.STREAM, offset));
+
+                if (records == null || records.isEmpty()) {
+                    smtpCircuitBreaker.releasePermission();
+                    offset = ReadOffset.lastConsumed();
+                    replayingPending = false;
+                    continue;
+                }
+
+                deliverOrPark(records);
+                if (replayingPending) {
+                    offset = ReadOffset.from(records.get(records.size() - 1).getId());
+                }
+            } catch (DataAccessException e) {
+                smtpCircuitBreaker.releasePermission();
+                logger.warn("Reading {} failed", EmailOutbox.STREAM, e);
+                pause();
+            } catch (RuntimeException e) {
+                smtpCircuitBreaker.releasePermission();
+                logger.error("Email worker {} failed, polling again", consumer.getName(), e);
+                pause();
+            }
+        }
+    }
+
+    private void deliverOrPark(List<MapRecord<String, Object, Object>> records) {
+        try {
+            deliver(records);
+        } catch (DataAccessException e) {
+            // left pending, delivered again after the next restart or claimed once it is idle
+            smtpCircuitBreaker.releasePermission();
+            logger.warn("Redis failed while delivering a batch from {}", EmailOutbox.STREAM, e);
+            pause();
+        } catch (RuntimeException e) {
+            // a bug must not cost this node a consumer; the batch is parked instead of replayed forever
+            smtpCircuitBreaker.releasePermission();
+            logger.error("Delivering a batch from {} failed, dead-lettering it", EmailOutbox.STREAM, e);
+            deadLetter(records, e);
+        }
+    }
+
+    //  XCLAIM with a min idle time only hands an entry to the first worker that asks, and resets its idle time, so entries
+    //  a live consumer is still working on are never taken from it. Entries delivered too often are parked, not retried
+    private List<MapRecord<String, Object, Object>> claimAbandoned(Consumer consumer) {
+        PendingMessages pendingMessages = redisTemplate.opsForStream()
+                .pending(EmailOutbox.STREAM, GROUP, Range.unbounded(), PENDING_SCAN);
+
+        List<RecordId> claimable = new ArrayList<>();
+        List<RecordId> exhausted = new ArrayList<>();
+        for (PendingMessage pendingMessage : pendingMessages) {
+            if (pendingMessage.getElapsedTimeSinceLastDelivery().compareTo(reclaimIdle) < 0) {
+                continue;
+            }
+            if (pendingMessage.getTotalDeliveryCount() >= maxDeliveries) {
+                exhausted.add(pendingMessage.getId());
+            } else if (claimable.size() < batchSize) {
+                claimable.add(pendingMessage.getId());
+            }
+        }
+
+        if (!exhausted.isEmpty()) {
+            List<MapRecord<String, Object, Object>> parked = claim(consumer, exhausted);
+            for (MapRecord<String, Object, Object> record : parked) {
+                emailOutbox.deadLetter(record.getId().getValue(), "Not delivered after " + maxDeliveries + " deliveries");
+            }
+            acknowledge(parked);
+        }
+        if (claimable.isEmpty()) {
+            return List.of();
+        }
+        List<MapRecord<String, Object, Object>> claimed = claim(consumer, claimable);
+        if (!claimed.isEmpty()) {
+            logger.info("Claimed {} abandoned entries of {}", claimed.size(), EmailOutbox.STREAM);
+        }
+        return claimed;
+    }
+
+    private List<MapRecord<String, Object, Object>> claim(Consumer consumer, List<RecordId> recordIds) {
+        List<MapRecord<String, Object, Object>> claimed = redisTemplate.opsForStream().claim(EmailOutbox.STREAM, GROUP,
+                consumer.getName(), XClaimOptions.minIdle(reclaimIdle).ids(recordIds));
+        return claimed == null ? List.of() : claimed;
+    }
+
+    private void deliver(List<MapRecord<String, Object, Object>> records) {
+        List<OutboundEmail> emails = new ArrayList<>(records.size());
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                OutboundEmail email = emailOutbox.read(record);
+                if (emailOutbox.isDeliverable(email)) {
+                    emails.add(email);
+                }
+            } catch (IOException e) {
+                emailOutbox.deadLetter(record.getId().getValue(), "Unreadable payload: " + e.getMessage());
+            }
+        }
+
+        long startNanos = System.nanoTime();
+        Map<OutboundEmail, Exception> failures = emailService.deliver(emails);
+        long durationNanos = System.nanoTime() - startNanos;
+        if (!emails.isEmpty() && failures.size() == emails.size()) {
+            smtpCircuitBreaker.onError(durationNanos, TimeUnit.NANOSECONDS, failures.values().iterator().next());
+        } else {
+            smtpCircuitBreaker.onSuccess(durationNanos, TimeUnit.NANOSECONDS);
+        }
+        failures.forEach((email, cause) -> {
+            try {
+                emailOutbox.retryLater(email, cause);
+            } catch (DataAccessException e) {
+                logger.warn("Failed to schedule a retry of email {}", email.id(), e);
+            } catch (RuntimeException e) {
+                logger.error("Failed to schedule a retry of email {}", email.id(), e);
+                try {
+                    emailOutbox.deadLetter(email.id(), "Retry not scheduled: " + e.getMessage());
+                } catch (DataAccessException deadLetterFailure) {
+                    logger.warn("Failed to dead-letter email {}", email.id(), deadLetterFailure);
+                }
+            }
+        });
+        delivered.increment(emails.size() - failures.size());
+
+        acknowledge(records);
+    }
+
+    private void deadLetter(List<MapRecord<String, Object, Object>> records, RuntimeException cause) {
+        try {
+            for (MapRecord<String, Object, Object> record : records) {
+                emailOutbox.deadLetter(record.getId().getValue(), "Delivery failed: " + cause);
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Failed to dead-letter email records", e);
+        }
+        acknowledge(records);
+    }
+
+    private void acknowledge(List<MapRecord<String, Object, Object>> records) {
+        for (MapRecord<String, Object, Object> record : records) {
+            try {
+                emailOutbox.acknowledge(GROUP, record.getId());
+            } catch (DataAccessException e) {
+                // stays pending for this consumer, delivered again after the next restart or claimed once it is idle
+                logger.warn("Failed to acknowledge email record {}", record.getId(), e);
+            }
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(POLL_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private void createGroup() {
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    EmailOutbox.STREAM.getBytes(StandardCharsets.UTF_8), GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            // BUSYGROUP: another node or an earlier run already created it
+            logger.debug("Consumer group {} already exists", GROUP);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "mail-worker";
+        }
+    }
+}
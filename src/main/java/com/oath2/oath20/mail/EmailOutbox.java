@@ -0,0 +1,179 @@
+package com.oath2.oath20.mail;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+//  durable outbox on a redis stream: requests only XADD, the delivery workers do the SMTP work.
+//  failed messages wait in a ZSET scored by their next attempt and go back on the stream when due;
+//  after `max-attempts` they are recorded on the dead letter stream (id and error only, capped at `dead-letter-max-length`).
+//  payloads are encrypted with OutboxCipher, messages past their expiresAt are dropped instead of retried
+@Component
+public class EmailOutbox {
+    private static final Logger logger = LoggerFactory.getLogger(EmailOutbox.class);
+
+    public static final String STREAM = "mail:outbox";
+    private static final String RETRIES = "mail:outbox:retry";
+    private static final String DEAD_LETTERS = "mail:outbox:dead";
+    private static final String PAYLOAD = "payload";
+    private static final int RETRY_BATCH = 100;
+
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final OutboxCipher outboxCipher;
+    private final int maxAttempts;
+    private final long deadLetterMaxLength;
+    private final Duration initialBackoff;
+    private final Duration maxBackoff;
+    private final Counter enqueued;
+    private final Counter retried;
+    private final Counter deadLettered;
+    private final Counter expired;
+
+    public EmailOutbox(StringRedisTemplate redisTemplate,
+                       ObjectMapper objectMapper,
+                       OutboxCipher outboxCipher,
+                       MeterRegistry meterRegistry,
+                       @Value("${mail.outbox.max-attempts:6}") int maxAttempts,
+                       @Value("${mail.outbox.dead-letter-max-length:10000}") long deadLetterMaxLength,
+                       @Value("${mail.outbox.initial-backoff:PT10S}") Duration initialBackoff,
+                       @Value("${mail.outbox.max-backoff:PT10M}") Duration maxBackoff) {
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.outboxCipher = outboxCipher;
+        this.maxAttempts = maxAttempts;
+        this.deadLetterMaxLength = deadLetterMaxLength;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+        this.enqueued = Counter.builder("mail.outbox.messages").tag("event", "enqueued").register(meterRegistry);
+        this.retried = Counter.builder("mail.outbox.messages").tag("event", "retried").register(meterRegistry);
+        this.deadLettered = Counter.builder("mail.outbox.messages").tag("event", "dead").register(meterRegistry);
+        this.expired = Counter.builder("mail.outbox.messages").tag("event", "expired").register(meterRegistry);
+    }
+
+    public void enqueue(OutboundEmail email) {
+        redisTemplate.opsForStream().add(STREAM, Map.of(PAYLOAD, seal(email)));
+        enqueued.increment();
+    }
+
+    // a missing, tampered or "null" payload is unreadable, the caller dead-letters the record
+    public OutboundEmail read(MapRecord<String, Object, Object> record) throws IOException {
+        Object payload = record.getValue().get(PAYLOAD);
+        if (payload == null) {
+            throw new IOException("Record has no payload");
+        }
+
+        final String json;
+        try {
+            json = outboxCipher.decrypt(payload.toString());
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Payload cannot be decrypted", e);
+        }
+        OutboundEmail email = objectMapper.readValue(json, OutboundEmail.class);
+        if (email == null || email.to() == null) {
+            throw new IOException("Payload is not an email");
+        }
+        return email;
+    }
+
+    // the message is done with as far as the stream is concerned, delivered or rescheduled
+    public void acknowledge(String group, RecordId recordId) {
+        redisTemplate.opsForStream().acknowledge(STREAM, group, recordId);
+        redisTemplate.opsForStream().delete(STREAM, recordId);
+    }
+
+    // false once the content is useless; the message is counted as expired and must not be sent
+    public boolean isDeliverable(OutboundEmail email) {
+        if (!email.isExpired(Instant.now())) {
+            return true;
+        }
+        drop(email);
+        return false;
+    }
+
+    public void retryLater(OutboundEmail email, Exception cause) {
+        OutboundEmail nextAttempt = email.nextAttempt();
+        if (nextAttempt.attempt() >= maxAttempts) {
+            deadLetter(email.id(), cause.getMessage());
+            return;
+        }
+
+        Instant dueAt = Instant.now().plus(backoff(nextAttempt.attempt()));
+        // the retry would come too late to be of use
+        if (nextAttempt.isExpired(dueAt)) {
+            drop(nextAttempt);
+            return;
+        }
+        redisTemplate.opsForZSet().add(RETRIES, seal(nextAttempt), dueAt.toEpochMilli());
+        retried.increment();
+        logger.info("Delivery of email {} failed (attempt {}), retrying at {}", email.id(), nextAttempt.attempt(), dueAt);
+    }
+
+    // keeps no content, only what is needed to investigate; the stream is trimmed to the newest entries
+    public void deadLetter(String id, String reason) {
+        redisTemplate.opsForStream().add(DEAD_LETTERS, Map.of("id", String.valueOf(id), "error", String.valueOf(reason)));
+        redisTemplate.opsForStream().trim(DEAD_LETTERS, deadLetterMaxLength, true);
+        deadLettered.increment();
+        logger.error("Email {} moved to {}: {}", id, DEAD_LETTERS, reason);
+    }
+
+    // ZREM decides which node moves a due message, so it is re-queued exactly once
+    @Scheduled(fixedDelayString = "${mail.outbox.retry-poll-interval:PT1S}")
+    public void requeueDueRetries() {
+        try {
+            Set<String> dueMessages = redisTemplate.opsForZSet()
+                    .rangeByScore(RETRIES, 0, Instant.now().toEpochMilli(), 0, RETRY_BATCH);
+            if (dueMessages == null) {
+                return;
+            }
+
+            for (String payload : dueMessages) {
+                Long removed = redisTemplate.opsForZSet().remove(RETRIES, payload);
+                if (removed != null && removed > 0) {
+                    redisTemplate.opsForStream().add(STREAM, Map.of(PAYLOAD, payload));
+                }
+            }
+        } catch (DataAccessException e) {
+            logger.warn("Failed to re-queue due emails", e);
+        }
+    }
+
+    private void drop(OutboundEmail email) {
+        expired.increment();
+        logger.info("Dropping email {}, it expires at {}", email.id(), email.expiresAt());
+    }
+
+    // exponential backoff with equal jitter, so messages failed by the same SMTP outage do not come back together
+    private Duration backoff(int attempt) {
+        long exponentialMillis = initialBackoff.toMillis() << Math.min(attempt - 1, 20);
+        long cappedMillis = Math.min(exponentialMillis, maxBackoff.toMillis());
+        long halfMillis = cappedMillis / 2;
+        return Duration.ofMillis(halfMillis + ThreadLocalRandom.current().nextLong(halfMillis + 1));
+    }
+
+    private String seal(OutboundEmail email) {
+        try {
+            return outboxCipher.encrypt(objectMapper.writeValueAsString(email));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Cannot serialize email " + email.id(), e);
+        }
+    }
+}
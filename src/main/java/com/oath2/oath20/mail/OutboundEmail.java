@@ -0,0 +1,21 @@
+package com.oath2.oath20.mail;
+
+import java.time.Instant;
+import java.util.UUID;
+
+//  a message waiting in the outbox; attempt counts the failed deliveries so far.
+//  expiresAt (null: never) is when the content is useless, e.g. the OTP it carries ran out; it is not sent after that
+public record OutboundEmail(String id, String to, String subject, String text, int attempt, Instant expiresAt) {
+
+    public static OutboundEmail of(String to, String subject, String text, Instant expiresAt) {
+        return new OutboundEmail(UUID.randomUUID().toString(), to, subject, text, 0, expiresAt);
+    }
+
+    public OutboundEmail nextAttempt() {
+        return new OutboundEmail(id, to, subject, text, attempt + 1, expiresAt);
+    }
+
+    public boolean isExpired(Instant now) {
+        return expiresAt != null && !now.isBefore(expiresAt);
+    }
+}
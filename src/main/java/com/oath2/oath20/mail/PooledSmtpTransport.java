@@ -0,0 +1,187 @@
+package com.oath2.oath20.mail;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.MimeMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+//  keeps up to `pool-size` authenticated SMTP connections open so a batch of messages costs one TCP + STARTTLS + AUTH
+//  handshake at most instead of one per message. Connections idle for longer than `max-idle` are closed before the
+//  server drops them on its side
+@Component
+public class PooledSmtpTransport {
+    private static final Logger logger = LoggerFactory.getLogger(PooledSmtpTransport.class);
+
+    private final JavaMailSenderImpl mailSender;
+    private final Semaphore permits;
+    private final Duration borrowTimeout;
+    private final Duration maxIdle;
+    private final BlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<>();
+    private final Timer sendLatency;
+    private final Counter connectionsOpened;
+    private final Counter connectionsReused;
+
+    private record PooledConnection(Transport transport, Instant releasedAt) {
+    }
+
+    public PooledSmtpTransport(JavaMailSenderImpl mailSender,
+                               MeterRegistry meterRegistry,
+                               @Value("${mail.smtp.pool-size:4}") int poolSize,
+                               @Value("${mail.smtp.borrow-timeout:PT30S}") Duration borrowTimeout,
+                               @Value("${mail.smtp.max-idle:PT60S}") Duration maxIdle) {
+        this.mailSender = mailSender;
+        this.permits = new Semaphore(poolSize);
+        this.borrowTimeout = borrowTimeout;
+        this.maxIdle = maxIdle;
+        this.sendLatency = Timer.builder("mail.smtp.send").register(meterRegistry);
+        this.connectionsOpened = Counter.builder("mail.smtp.connections").tag("event", "opened").register(meterRegistry);
+        this.connectionsReused = Counter.builder("mail.smtp.connections").tag("event", "reused").register(meterRegistry);
+        Gauge.builder("mail.smtp.connections.idle", idleConnections, BlockingDeque::size).register(meterRegistry);
+    }
+
+    public MimeMessage createMessage() {
+        return mailSender.createMimeMessage();
+    }
+
+    //  sends the messages over one pooled connection and returns the ones that failed.
+    //  a connection the server dropped mid-batch is replaced once, after that the remaining messages fail
+    public Map<MimeMessage, Exception> sendBatch(List<MimeMessage> messages) {
+        Map<MimeMessage, Exception> failures = new IdentityHashMap<>();
+
+        Transport transport;
+        try {
+            transport = borrow();
+        } catch (MessagingException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            messages.forEach(message -> failures.put(message, e));
+            return failures;
+        }
+
+        boolean reconnected = false;
+        try {
+            for (MimeMessage message : messages) {
+                if (transport == null) {
+                    failures.put(message, new MessagingException("SMTP connection lost"));
+                    continue;
+                }
+
+                Timer.Sample sample = Timer.start();
+                try {
+                    message.saveChanges();
+                    transport.sendMessage(message, message.getAllRecipients());
+                } catch (MessagingException e) {
+                    failures.put(message, e);
+                    if (!transport.isConnected()) {
+                        closeQuietly(transport);
+                        transport = reconnected ? null : reopen();
+                        reconnected = true;
+                    }
+                } finally {
+                    sample.stop(sendLatency);
+                }
+            }
+        } finally {
+            release(transport);
+        }
+        return failures;
+    }
+
+    @Scheduled(fixedDelayString = "${mail.smtp.max-idle:PT60S}")
+    public void closeIdleConnections() {
+        PooledConnection connection;
+        while ((connection = idleConnections.pollLast()) != null) {
+            if (!isExpired(connection)) {
+                idleConnections.offerLast(connection);
+                return;
+            }
+            closeQuietly(connection.transport());
+        }
+    }
+
+    @PreDestroy
+    void closeAll() {
+        PooledConnection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            closeQuietly(connection.transport());
+        }
+    }
+
+    // most recently released connections are reused first, so the oldest ones age out at the tail
+    private Transport borrow() throws MessagingException, InterruptedException {
+        if (!permits.tryAcquire(borrowTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+            throw new MessagingException("No SMTP connection available within " + borrowTimeout);
+        }
+
+        try {
+            PooledConnection connection;
+            while ((connection = idleConnections.pollFirst()) != null) {
+                if (!isExpired(connection) && connection.transport().isConnected()) {
+                    connectionsReused.increment();
+                    return connection.transport();
+                }
+                closeQuietly(connection.transport());
+            }
+            return open();
+        } catch (MessagingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    private void release(Transport transport) {
+        if (transport != null && transport.isConnected()) {
+            idleConnections.offerFirst(new PooledConnection(transport, Instant.now()));
+        }
+        permits.release();
+    }
+
+    private Transport reopen() {
+        try {
+            return open();
+        } catch (MessagingException e) {
+            logger.warn("Failed to reopen SMTP connection", e);
+            return null;
+        }
+    }
+
+    private Transport open() throws MessagingException {
+        Transport transport = mailSender.getSession().getTransport(mailSender.getProtocol());
+        transport.connect(mailSender.getHost(), mailSender.getPort(), mailSender.getUsername(), mailSender.getPassword());
+        connectionsOpened.increment();
+        return transport;
+    }
+
+    private boolean isExpired(PooledConnection connection) {
+        return connection.releasedAt().plus(maxIdle).isBefore(Instant.now());
+    }
+
+    private static void closeQuietly(Transport transport) {
+        try {
+            transport.close();
+        } catch (MessagingException e) {
+            logger.debug("Failed to close SMTP connection", e);
+        }
+    }
+}
@@ -2,15 +2,15 @@ package com.oath2.oath20.mapper;
 
 import com.oath2.oath20.dto.UserRegistrationDto;
 import com.oath2.oath20.entity.UserInfoEntity;
+import com.oath2.oath20.service.PasswordHashingService;
 import lombok.RequiredArgsConstructor;
-import org.springframework.security.crypto.password.PasswordEncoder;
 import org.springframework.stereotype.Component;
 
 @Component
 @RequiredArgsConstructor
 public class UserInfoMapper {
 
-    private final PasswordEncoder passwordEncoder;
+    private final PasswordHashingService passwordHashingService;
     public UserInfoEntity convertToEntity(UserRegistrationDto userRegistrationDto) {
         UserInfoEntity userInfoEntity = new UserInfoEntity();
 
@@ -18,7 +18,7 @@ public class UserInfoMapper {
         userInfoEntity.setEmailId(userRegistrationDto.userEmail());
         userInfoEntity.setMobileNumber(userRegistrationDto.userMobileNo());
         userInfoEntity.setRoles(userRegistrationDto.userRole());
-        userInfoEntity.setPassword(passwordEncoder.encode(userRegistrationDto.userPassword()));
+        userInfoEntity.setPassword(passwordHashingService.encode(userRegistrationDto.userPassword()));
 
         return userInfoEntity;
     }
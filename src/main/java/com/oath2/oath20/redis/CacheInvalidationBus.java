@@ -0,0 +1,55 @@
+package com.oath2.oath20.redis;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+// broadcasts "cacheName:key" evictions over redis pub/sub so every node drops its local copy
+@Component
+public class CacheInvalidationBus implements MessageListener {
+    private static final Logger logger = LoggerFactory.getLogger(CacheInvalidationBus.class);
+
+    public static final String CHANNEL = "cache-invalidation";
+
+    private final StringRedisTemplate redisTemplate;
+    private final Map<String, Consumer<String>> evictors = new ConcurrentHashMap<>();
+
+    public CacheInvalidationBus(StringRedisTemplate redisTemplate) {
+        this.redisTemplate = redisTemplate;
+    }
+
+    public void subscribe(String cacheName, Consumer<String> evictor) {
+        evictors.put(cacheName, evictor);
+    }
+
+    public void publish(String cacheName, String key) {
+        try {
+            redisTemplate.convertAndSend(CHANNEL, cacheName + ":" + key);
+        } catch (DataAccessException e) {
+            logger.warn("Failed to publish invalidation of {} in cache {}", key, cacheName, e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        int separator = body.indexOf(':');
+        if (separator < 0) {
+            return;
+        }
+
+        Consumer<String> evictor = evictors.get(body.substring(0, separator));
+        if (evictor != null) {
+            evictor.accept(body.substring(separator + 1));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.oath2.oath20.redis;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.time.Duration;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+// bounded in-process cache in front of a redis cache shared by all nodes.
+// a stale entry lives at most until an invalidation message arrives, and never longer than localTtl + sharedTtl
+public class TwoTierCache<V> {
+    private static final Logger logger = LoggerFactory.getLogger(TwoTierCache.class);
+
+    private final String name;
+    private final Class<V> type;
+    private final Duration sharedTtl;
+    private final Cache<String, V> localCache;
+    private final StringRedisTemplate redisTemplate;
+    private final ObjectMapper objectMapper;
+    private final CacheInvalidationBus invalidationBus;
+    private final Counter sharedHits;
+    private final Counter sharedMisses;
+
+    public TwoTierCache(String name,
+                        Class<V> type,
+                        long maximumSize,
+                        Duration localTtl,
+                        Duration sharedTtl,
+                        StringRedisTemplate redisTemplate,
+                        ObjectMapper objectMapper,
+                        CacheInvalidationBus invalidationBus,
+                        MeterRegistry meterRegistry) {
+        this.name = name;
+        this.type = type;
+        this.sharedTtl = sharedTtl;
+        this.redisTemplate = redisTemplate;
+        this.objectMapper = objectMapper;
+        this.invalidationBus = invalidationBus;
+        this.localCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(localTtl)
+                .recordStats()
+                .build();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, localCache, name);
+        this.sharedHits = Counter.builder("cache.shared.gets").tag("cache", name).tag("result", "hit").register(meterRegistry);
+        this.sharedMisses = Counter.builder("cache.shared.gets").tag("cache", name).tag("result", "miss").register(meterRegistry);
+
+        invalidationBus.subscribe(name, localCache::invalidate);
+    }
+
+    // the loader may return null, in which case nothing is cached
+    public V get(String key, Function<String, V> loader) {
+        return get(key, loader, value -> true);
+    }
+
+    // loaded values failing `cacheable` are returned but not cached, e.g. a response built in degraded mode
+    public V get(String key, Function<String, V> loader, Predicate<V> cacheable) {
+        V value = localCache.getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+
+        value = readShared(key);
+        if (value == null) {
+            value = loader.apply(key);
+            if (value == null || !cacheable.test(value)) {
+                return value;
+            }
+            writeShared(key, value);
+        }
+
+        localCache.put(key, value);
+        return value;
+    }
+
+    public void invalidate(String key) {
+        localCache.invalidate(key);
+        try {
+            redisTemplate.delete(redisKey(key));
+        } catch (DataAccessException e) {
+            logger.warn("Failed to delete {} from shared cache {}", key, name, e);
+        }
+        invalidationBus.publish(name, key);
+    }
+
+    private V readShared(String key) {
+        try {
+            String json = redisTemplate.opsForValue().get(redisKey(key));
+            if (json == null) {
+                sharedMisses.increment();
+                return null;
+            }
+            sharedHits.increment();
+            return objectMapper.readValue(json, type);
+        } catch (DataAccessException | JsonProcessingException e) {
+            logger.warn("Failed to read {} from shared cache {}", key, name, e);
+            return null;
+        }
+    }
+
+    private void writeShared(String key, V value) {
+        try {
+            redisTemplate.opsForValue().set(redisKey(key), objectMapper.writeValueAsString(value), sharedTtl);
+        } catch (DataAccessException | JsonProcessingException e) {
+            logger.warn("Failed to write {} to shared cache {}", key, name, e);
+        }
+    }
+
+    private String redisKey(String key) {
+        return "cache:" + name + ":" + key;
+    }
+}
@@ -2,11 +2,18 @@ package com.oath2.oath20.repository;
 
 import com.oath2.oath20.entity.RefreshTokenEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.util.Optional;
 
 @Repository
 public interface RefreshTokenRepository extends JpaRepository<RefreshTokenEntity, Long> {
-    Optional<RefreshTokenEntity> findByRefreshToken(String refreshToken);
+
+    @Query("select token from RefreshTokenEntity token join fetch token.user where token.tokenHash = :tokenHash")
+    Optional<RefreshTokenEntity> findByTokenHash(@Param("tokenHash") String tokenHash);
+
+    @Query("select token from RefreshTokenEntity token join fetch token.user where token.refreshToken = :refreshToken")
+    Optional<RefreshTokenEntity> findByRefreshToken(@Param("refreshToken") String refreshToken);
 }
@@ -2,7 +2,11 @@ package com.oath2.oath20.repository;
 
 import com.oath2.oath20.entity.UserInfoEntity;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
 import java.util.Optional;
 
@@ -10,4 +14,12 @@ import java.util.Optional;
 public interface UserInfoRepository extends JpaRepository<UserInfoEntity, Long> {
     Optional<UserInfoEntity> findByEmailId(String emailId);
     Optional<UserInfoEntity> findByUsername(String username);
+
+    // reference count of a content-addressed picture, served by IDX_USER_INFO_PROFILE_PICTURE_KEY
+    long countByProfilePictureKey(String profilePictureKey);
+
+    @Transactional
+    @Modifying
+    @Query("update UserInfoEntity user set user.password = :password where user.emailId = :emailId")
+    int updatePassword(@Param("emailId") String emailId, @Param("password") String password);
 }
@@ -1,25 +1,28 @@
 package com.oath2.oath20.service;
 
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
 import com.oath2.oath20.config.jwtConfig.JwtTokenGenerator;
+import com.oath2.oath20.config.userConfig.UserPrincipalCache;
 import com.oath2.oath20.dto.AuthResponseDto;
 import com.oath2.oath20.dto.TokenType;
 import com.oath2.oath20.dto.UserRegistrationDto;
 import com.oath2.oath20.entity.RefreshTokenEntity;
 import com.oath2.oath20.entity.UserInfoEntity;
 import com.oath2.oath20.mapper.UserInfoMapper;
-import com.oath2.oath20.repository.RefreshTokenRepository;
 import com.oath2.oath20.repository.UserInfoRepository;
 import jakarta.servlet.http.Cookie;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
-import org.springframework.security.core.GrantedAuthority;
 import org.springframework.stereotype.Service;
 import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.UserDetails;
 import org.springframework.web.server.ResponseStatusException;
 
-import java.util.Arrays;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.Optional;
 
 @Service
@@ -28,18 +31,28 @@ public class AuthService {
 
     private final UserInfoRepository userInfoRepository;
     private final JwtTokenGenerator jwtTokenGenerator;
-    private final RefreshTokenRepository refreshTokenRepository;
+    private final RefreshTokenService refreshTokenService;
     private final UserInfoMapper userInfoMapper;
+    private final UserPrincipalCache userPrincipalCache;
+    private final AuthorizationModel authorizationModel;
+    private final PasswordHashingService passwordHashingService;
+    private final CloudFrontService cloudFrontService;
+
+    // parent domain shared by the API and the CDN host, e.g. example.com for api.example.com and cdn.example.com
+    @Value("${aws.cloudfront.signed-cookies.domain:}")
+    private String cloudFrontCookieDomain;
 
     public AuthResponseDto getJwtTokensAfterAuthentication(Authentication auhthentication, HttpServletResponse response){
         try {
             var userInfoEntity = userInfoRepository.findByEmailId(auhthentication.getName()).orElseThrow(()-> new ResponseStatusException(HttpStatus.NOT_FOUND, "USER NOT FOUND"));
 
-            String accessToken = jwtTokenGenerator.generateAccessToken(auhthentication);
-            String refreshToken = jwtTokenGenerator.generateRefreshToken(auhthentication);
+            // both tokens of the pair share one timestamp
+            Instant issuedAt = Instant.now();
+            String accessToken = jwtTokenGenerator.generateAccessToken(auhthentication, issuedAt);
+            String refreshToken = refreshTokenService.issueRefreshToken(userInfoEntity, auhthentication, issuedAt);
 
-            saveUserRefreshToken(userInfoEntity,refreshToken);
             createRefreshTokenCookie(response, refreshToken);
+            createCloudFrontCookies(response);
 
             return AuthResponseDto.builder()
                     .accessToken(accessToken)
@@ -48,6 +61,9 @@ public class AuthService {
                     .tokenType(TokenType.Bearer)
                     .build();
 
+        } catch (ResponseStatusException e) {
+            // keeps the hashing pool's 503 a 503, the concurrency limiter shrinks on it
+            throw e;
         }catch (Exception e){
             throw new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR, "Please try again!! the error might be: " + e.getMessage());
         }
@@ -58,23 +74,32 @@ public class AuthService {
 
         refreshTokenCookie.setHttpOnly(true);
         refreshTokenCookie.setSecure(true);
-        refreshTokenCookie.setMaxAge(15*24*60*60);
+        refreshTokenCookie.setMaxAge((int) RefreshTokenService.REFRESH_TOKEN_VALIDITY.toSeconds());
 
         response.addCookie(refreshTokenCookie);
 
     }               
 
-    private void saveUserRefreshToken(UserInfoEntity userInfoEntity, String refreshToken) {
-        var refreshTokenEntity = RefreshTokenEntity.builder()
-                .user(userInfoEntity)
-                .refreshToken(refreshToken)
-                .revoked(false)
-                .build();
-
-        refreshTokenRepository.save(refreshTokenEntity);
+    // lets the browser load profile pictures from the CDN with plain URLs for the rest of the session
+    private void createCloudFrontCookies(HttpServletResponse response) {
+        cloudFrontService.getSignedCookies().ifPresent(signedCookies -> {
+            int maxAge = (int) Duration.between(Instant.now(), signedCookies.expiresAt()).toSeconds();
+
+            signedCookies.cookies().forEach((name, value) -> {
+                Cookie cookie = new Cookie(name, value);
+                cookie.setHttpOnly(true);
+                cookie.setSecure(true);
+                cookie.setPath("/");
+                if (!cloudFrontCookieDomain.isBlank()) {
+                    cookie.setDomain(cloudFrontCookieDomain);
+                }
+                cookie.setMaxAge(maxAge);
+                response.addCookie(cookie);
+            });
+        });
     }
 
-    public Object getAccessTokenUsingRefreshToken(String authorizationHeader) {
+    public Object getAccessTokenUsingRefreshToken(String authorizationHeader, RefreshTokenEntity loadedRefreshToken) {
 
         if(!authorizationHeader.startsWith(TokenType.Bearer.name())){
 
@@ -83,8 +108,10 @@ public class AuthService {
 
         final String refreshToken = authorizationHeader.substring(7);
 
-        var refreshTokenEntity = refreshTokenRepository.findByRefreshToken(refreshToken)
-                .filter(tokens-> !tokens.isRevoked())
+        // JwtRefreshTokenFilter already loaded the token row together with its user, only look it up again when it did not
+        var refreshTokenEntity = Optional.ofNullable(loadedRefreshToken)
+                .filter(RefreshTokenService::isActive)
+                .or(() -> refreshTokenService.findActiveRefreshToken(refreshToken))
                 .orElseThrow(()-> new ResponseStatusException(HttpStatus.INTERNAL_SERVER_ERROR,"Refresh token revoked"));
 
         UserInfoEntity userInfoEntity = refreshTokenEntity.getUser();
@@ -101,17 +128,23 @@ public class AuthService {
                 .build();
     }
 
-    private static Authentication createAuthenticationObject(UserInfoEntity userInfoEntity) {
+    private Authentication createAuthenticationObject(UserInfoEntity userInfoEntity) {
         String username = userInfoEntity.getEmailId();
         String password = userInfoEntity.getPassword();
         String roles = userInfoEntity.getRoles();
 
-        String[] roleArray = roles.split(",");
-        GrantedAuthority[] authorities = Arrays.stream(roleArray)
-                .map(role -> (GrantedAuthority) role::trim)
-                .toArray(GrantedAuthority[]::new);
+        return new UsernamePasswordAuthenticationToken(username, password, authorizationModel.compileRoles(roles).roleAuthorities());
+    }
 
-        return new UsernamePasswordAuthenticationToken(username, password, Arrays.asList(authorities));
+    public void upgradePasswordHashIfNeeded(UserDetails userDetails, String rawPassword) {
+        if (!passwordHashingService.upgradeEncoding(userDetails.getPassword())) {
+            return;
+        }
+
+        passwordHashingService.rehashInBackground(rawPassword, rehashedPassword -> {
+            userInfoRepository.updatePassword(userDetails.getUsername(), rehashedPassword);
+            userPrincipalCache.invalidate(userDetails.getUsername());
+        });
     }
 
     public void enableUser(String email) {
@@ -119,6 +152,7 @@ public class AuthService {
                 .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "User not found"));
         user.setEnabled(true);
         userInfoRepository.save(user);
+        userPrincipalCache.invalidate(email);
     }
 
     public AuthResponseDto registerUser(UserRegistrationDto userRegistrationDto,HttpServletResponse httpServletResponse) {
@@ -129,19 +163,23 @@ public class AuthService {
             if (user.isPresent()) {
                 throw new Exception("User Already Exist");
             }
+            if (!authorizationModel.isKnownRoles(userRegistrationDto.userRole())) {
+                throw new Exception("Unknown user role");
+            }
 
             UserInfoEntity userDetailsEntity = userInfoMapper.convertToEntity(userRegistrationDto);
             Authentication authentication = createAuthenticationObject(userDetailsEntity);
 
 
             // Generate a JWT token
-            String accessToken = jwtTokenGenerator.generateAccessToken(authentication);
-            String refreshToken = jwtTokenGenerator.generateRefreshToken(authentication);
+            Instant issuedAt = Instant.now();
+            String accessToken = jwtTokenGenerator.generateAccessToken(authentication, issuedAt);
 
             UserInfoEntity savedUserDetails = userInfoRepository.save(userDetailsEntity);
-            saveUserRefreshToken(userDetailsEntity, refreshToken);
+            String refreshToken = refreshTokenService.issueRefreshToken(savedUserDetails, authentication, issuedAt);
 
             createRefreshTokenCookie(httpServletResponse, refreshToken);
+            createCloudFrontCookies(httpServletResponse);
 
             return AuthResponseDto.builder()
                     .accessToken(accessToken)
@@ -151,6 +189,9 @@ public class AuthService {
                     .build();
 
 
+        } catch (ResponseStatusException e) {
+            // keeps the hashing pool's 503 a 503, the concurrency limiter shrinks on it
+            throw e;
         } catch (Exception e) {
 
             throw new ResponseStatusException(HttpStatus.BAD_REQUEST, e.getMessage());
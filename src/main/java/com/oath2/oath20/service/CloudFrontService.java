@@ -1,6 +1,13 @@
 package com.oath2.oath20.service;
 
+import com.amazonaws.services.cloudfront.CloudFrontCookieSigner;
 import com.amazonaws.services.cloudfront.CloudFrontUrlSigner;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
 import org.bouncycastle.util.io.pem.PemObject;
 import org.bouncycastle.util.io.pem.PemReader;
 import org.slf4j.Logger;
@@ -16,42 +23,160 @@ import java.security.KeyFactory;
 import java.security.PrivateKey;
 import java.security.Security;
 import java.security.spec.PKCS8EncodedKeySpec;
+import java.time.Duration;
 import java.time.Instant;
 import java.util.Date;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
 @Service
 public class CloudFrontService {
     private static final Logger logger = LoggerFactory.getLogger(CloudFrontService.class);
 
+    public static final Duration SIGNED_URL_VALIDITY = Duration.ofHours(1);
+
     private final String distributionDomain;
     private final String keyPairId;
     private final PrivateKey privateKey;
+    private final long bucketMillis;
+    private final long refreshAheadMillis;
+    private final AsyncCache<UrlBucket, String> signedUrls;
+    private final boolean signedCookiesEnabled;
+    private final Duration cookieValidity;
+    private volatile SignedCookies currentSignedCookies;
+
+    //  expiries are aligned to `url-bucket` boundaries, so every request for a key inside one bucket gets the same URL
+    //  (cacheable by browsers and the CDN) and the RSA signature is computed once per key and bucket.
+    //  a URL requested in a bucket expires at the bucket's end + SIGNED_URL_VALIDITY - url-bucket,
+    //  so it is valid for at least SIGNED_URL_VALIDITY - url-bucket
+    private record UrlBucket(String s3ObjectKey, long bucket) {
+    }
+
+    //  CloudFront-Policy / -Signature / -Key-Pair-Id for a custom policy over every profile picture. The policy is the same
+    //  for all users, so it is signed once per bucket and handed to every session started in that bucket
+    public record SignedCookies(Map<String, String> cookies, long bucket, Instant expiresAt) {
+    }
 
     public CloudFrontService(@Value("${aws.cloudfront.distribution-domain}") String distributionDomain,
                              @Value("${aws.cloudfront.key-pair-id}") String keyPairId,
-                             @Value("${aws.cloudfront.private-key-path}") Resource privateKeyResource) {
+                             @Value("${aws.cloudfront.private-key-path}") Resource privateKeyResource,
+                             @Value("${aws.cloudfront.url-bucket:PT15M}") Duration urlBucket,
+                             @Value("${aws.cloudfront.url-refresh-ahead:PT1M}") Duration refreshAhead,
+                             @Value("${aws.cloudfront.url-cache.maximum-size:50000}") long maximumCacheSize,
+                             @Value("${aws.cloudfront.signed-cookies.enabled:false}") boolean signedCookiesEnabled,
+                             @Value("${aws.cloudfront.signed-cookies.validity:P15D}") Duration cookieValidity,
+                             MeterRegistry meterRegistry) {
+        if (urlBucket.compareTo(SIGNED_URL_VALIDITY) >= 0) {
+            throw new IllegalStateException("aws.cloudfront.url-bucket must be shorter than " + SIGNED_URL_VALIDITY);
+        }
         this.distributionDomain = distributionDomain.startsWith("http") ? distributionDomain : "https://" + distributionDomain;
         this.keyPairId = keyPairId;
         this.privateKey = loadPrivateKey(privateKeyResource);
+        this.bucketMillis = urlBucket.toMillis();
+        this.refreshAheadMillis = refreshAhead.toMillis();
+        this.signedCookiesEnabled = signedCookiesEnabled;
+        this.cookieValidity = cookieValidity;
+
+        // an entry is written up to refreshAhead before its bucket starts and used until the bucket ends
+        this.signedUrls = Caffeine.newBuilder()
+                .maximumSize(maximumCacheSize)
+                .expireAfterWrite(urlBucket.plus(refreshAhead))
+                .recordStats()
+                .buildAsync();
+        CaffeineCacheMetrics.monitor(meterRegistry, signedUrls, "cloudFrontSignedUrl");
+    }
+
+    // the shortest remaining validity of a URL returned by getSignedUrl
+    public Duration getMinimumUrlValidity() {
+        return SIGNED_URL_VALIDITY.minusMillis(bucketMillis);
     }
 
+    // the fallback sits on the breaker only, a bulkhead fallback would hide every failure from it
+    @Bulkhead(name = "cloudfront")
+    @CircuitBreaker(name = "cloudfront", fallbackMethod = "getSignedUrlFallback")
     public String getSignedUrl(String s3ObjectKey) {
+        long now = System.currentTimeMillis();
+        long bucket = now / bucketMillis;
+
+        // sign the next bucket's URL in the background so nobody waits on RSA when the bucket rolls over
+        if (now >= (bucket + 1) * bucketMillis - refreshAheadMillis) {
+            signedUrls.get(new UrlBucket(s3ObjectKey, bucket + 1), this::sign);
+        }
+
+        try {
+            return signedUrls.get(new UrlBucket(s3ObjectKey, bucket), this::sign).join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    // pictures under the prefix are readable with the session's signed cookies, so their URL needs no signature
+    public boolean isServedWithSignedCookies(String s3ObjectKey) {
+        return signedCookiesEnabled && s3ObjectKey.startsWith(ProfileService.PROFILE_PICTURE_PREFIX);
+    }
+
+    public String getUnsignedUrl(String s3ObjectKey) {
+        return distributionDomain + "/" + s3ObjectKey;
+    }
+
+    public Optional<SignedCookies> getSignedCookies() {
+        if (!signedCookiesEnabled) {
+            return Optional.empty();
+        }
+
+        long bucket = System.currentTimeMillis() / bucketMillis;
+        SignedCookies signedCookies = currentSignedCookies;
+        if (signedCookies == null || signedCookies.bucket() != bucket) {
+            signedCookies = signCookies(bucket);
+            currentSignedCookies = signedCookies;
+        }
+        return Optional.of(signedCookies);
+    }
+
+    private SignedCookies signCookies(long bucket) {
         try {
-            String resourceUrl = distributionDomain + "/" + s3ObjectKey;
-            Date expirationDate = Date.from(Instant.now().plusSeconds(3600)); // URL valid for 1 hour
+            Instant expiresAt = Instant.ofEpochMilli((bucket + 1) * bucketMillis).plus(cookieValidity).minusMillis(bucketMillis);
+            String resourcePattern = distributionDomain + "/" + ProfileService.PROFILE_PICTURE_PREFIX + "*";
+
+            CloudFrontCookieSigner.CookiesForCustomPolicy cookies = CloudFrontCookieSigner.getCookiesForCustomPolicy(
+                    resourcePattern, keyPairId, privateKey, Date.from(expiresAt), null, null);
+
+            logger.info("Generated CloudFront signed cookies for {} expiring at {}", resourcePattern, expiresAt);
+            return new SignedCookies(Map.of(
+                    cookies.getPolicy().getKey(), cookies.getPolicy().getValue(),
+                    cookies.getSignature().getKey(), cookies.getSignature().getValue(),
+                    cookies.getKeyPairId().getKey(), cookies.getKeyPairId().getValue()
+            ), bucket, expiresAt);
+        } catch (Exception e) {
+            logger.error("Failed to generate CloudFront signed cookies", e);
+            throw new RuntimeException("Failed to generate signed cookies", e);
+        }
+    }
+
+    private String sign(UrlBucket urlBucket) {
+        try {
+            String resourceUrl = distributionDomain + "/" + urlBucket.s3ObjectKey();
+            Date expirationDate = new Date((urlBucket.bucket() + 1) * bucketMillis + SIGNED_URL_VALIDITY.toMillis() - bucketMillis);
 
             String signedUrl = CloudFrontUrlSigner.getSignedURLWithCannedPolicy(
                     resourceUrl, keyPairId, privateKey, expirationDate);
 
-            logger.info("Generated signed URL for object: {}", s3ObjectKey);
+            logger.debug("Generated signed URL for object: {} expiring at {}", urlBucket.s3ObjectKey(), expirationDate.toInstant());
             return signedUrl;
         } catch (Exception e) {
-            logger.error("Failed to generate signed URL for object: {}", s3ObjectKey, e);
+            logger.error("Failed to generate signed URL for object: {}", urlBucket.s3ObjectKey(), e);
             throw new RuntimeException("Failed to generate signed URL", e);
         }
     }
 
+    // the profile is still served, just without a picture URL
+    private String getSignedUrlFallback(String s3ObjectKey, Throwable throwable) {
+        logger.warn("Serving {} without a signed URL: {}", s3ObjectKey, throwable.toString());
+        return null;
+    }
+
     private PrivateKey loadPrivateKey(Resource privateKeyResource) {
         try {
             Security.addProvider(new org.bouncycastle.jce.provider.BouncyCastleProvider());
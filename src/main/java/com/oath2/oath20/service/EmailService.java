@@ -1,27 +1,70 @@
 package com.oath2.oath20.service;
 
+import com.oath2.oath20.mail.EmailOutbox;
+import com.oath2.oath20.mail.OutboundEmail;
+import com.oath2.oath20.mail.PooledSmtpTransport;
+import jakarta.mail.MessagingException;
+import jakarta.mail.internet.MimeMessage;
 import lombok.RequiredArgsConstructor;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 @Service
 @RequiredArgsConstructor
 public class EmailService {
-    private final JavaMailSender mailSender;
+    private final PooledSmtpTransport smtpTransport;
+    private final EmailOutbox emailOutbox;
 
     @Value("${spring.mail.username}")
     private String fromEmail;
 
-    public void sendOtpEmail(String to, String otp) {
-        SimpleMailMessage message = new SimpleMailMessage();
-        message.setFrom(fromEmail);
-        message.setTo(to);
-        message.setSubject("Your OTP for Account Verification");
-        message.setText("Your 6-digit OTP is: " + otp + "\n\n" +
-                "It will expire in 10 minutes.\n" +
-                "Do not share this OTP with anyone.");
-        mailSender.send(message);
+    // only queues the message, the SMTP round trip happens on the outbox workers; it is not sent once the code expired
+    public void sendOtpEmail(String to, String otp, Duration validity) {
+        emailOutbox.enqueue(OutboundEmail.of(to,
+                "Your OTP for Account Verification",
+                "Your 6-digit OTP is: " + otp + "\n\n" +
+                        "It will expire in " + Math.max(1, validity.toMinutes()) + " minutes.\n" +
+                        "Do not share this OTP with anyone.",
+                Instant.now().plus(validity)));
+    }
+
+    // sends the batch over one SMTP connection and returns the emails that could not be sent
+    public Map<OutboundEmail, Exception> deliver(List<OutboundEmail> emails) {
+        Map<OutboundEmail, Exception> failures = new HashMap<>();
+        Map<MimeMessage, OutboundEmail> messages = new IdentityHashMap<>();
+
+        for (OutboundEmail email : emails) {
+            try {
+                messages.put(toMimeMessage(email), email);
+            } catch (MessagingException | RuntimeException e) {
+                failures.put(email, e);
+            }
+        }
+
+        if (messages.isEmpty()) {
+            return failures;
+        }
+
+        smtpTransport.sendBatch(List.copyOf(messages.keySet()))
+                .forEach((message, cause) -> failures.put(messages.get(message), cause));
+        return failures;
+    }
+
+    private MimeMessage toMimeMessage(OutboundEmail email) throws MessagingException {
+        MimeMessage message = smtpTransport.createMessage();
+        MimeMessageHelper helper = new MimeMessageHelper(message, "UTF-8");
+        helper.setFrom(fromEmail);
+        helper.setTo(email.to());
+        helper.setSubject(email.subject());
+        helper.setText(email.text());
+        return message;
     }
 }
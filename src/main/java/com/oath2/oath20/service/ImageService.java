@@ -0,0 +1,181 @@
+package com.oath2.oath20.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+
+//  turns an upload into the stored profile picture: fit within maxWidth x maxHeight keeping the aspect ratio, JPEG at a fixed quality.
+//  the decoder subsamples while reading, so the raster held in memory is at most about twice the target size per side
+//  instead of the full resolution of the upload
+@Service
+public class ImageService {
+    private static final Logger logger = LoggerFactory.getLogger(ImageService.class);
+
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+
+    private final int maxWidth;
+    private final int maxHeight;
+    private final float jpegQuality;
+    private final long maxUploadBytes;
+    private final long maxPixels;
+    private final MeterRegistry meterRegistry;
+    private final Timer validationTimer;
+
+    public ImageService(MeterRegistry meterRegistry,
+                        @Value("${image.profile-picture.max-width:800}") int maxWidth,
+                        @Value("${image.profile-picture.max-height:600}") int maxHeight,
+                        @Value("${image.profile-picture.jpeg-quality:0.85}") float jpegQuality,
+                        @Value("${image.upload.max-bytes:10485760}") long maxUploadBytes,
+                        @Value("${image.upload.max-pixels:40000000}") long maxPixels) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.jpegQuality = jpegQuality;
+        this.maxUploadBytes = maxUploadBytes;
+        this.maxPixels = maxPixels;
+        this.meterRegistry = meterRegistry;
+        this.validationTimer = Timer.builder("image.upload.validation").register(meterRegistry);
+    }
+
+    //  rejects an upload from its size, magic bytes and header alone, before any raster is allocated:
+    //  a 50 MB limit on the request says nothing about a 60000x60000 JPEG that compresses to a few hundred KB
+    public void validateUpload(InputStreamSource source, long sizeInBytes) throws IOException {
+        Timer.Sample sample = Timer.start();
+        try {
+            checkUploadSize(sizeInBytes);
+
+            try (InputStream inputStream = source.getInputStream();
+                 ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+
+                byte[] magic = new byte[JPEG_MAGIC.length];
+                if (imageInputStream == null || imageInputStream.read(magic) != magic.length || !Arrays.equals(magic, JPEG_MAGIC)) {
+                    throw reject("not-jpeg", "Only JPG files are allowed.");
+                }
+                imageInputStream.seek(0);
+
+                ImageReader reader = ImageIO.getImageReadersByFormatName("jpeg").next();
+                try {
+                    reader.setInput(imageInputStream, true, true);
+                    long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                    if (pixels > maxPixels) {
+                        throw reject("too-many-pixels", "The image has more than " + maxPixels / 1_000_000 + " megapixels.");
+                    }
+                } catch (IOException e) {
+                    throw reject("unreadable", "The image is corrupt or unreadable.");
+                } finally {
+                    reader.dispose();
+                }
+            }
+        } finally {
+            sample.stop(validationTimer);
+        }
+    }
+
+    // the first check of validateUpload, usable before the bytes were fetched at all
+    public void checkUploadSize(long sizeInBytes) {
+        if (sizeInBytes <= 0) {
+            throw reject("empty", "The file is empty.");
+        }
+        if (sizeInBytes > maxUploadBytes) {
+            throw reject("too-large", "The file is larger than " + maxUploadBytes / (1024 * 1024) + " MB.");
+        }
+    }
+
+    public void writeProfilePicture(InputStreamSource source, OutputStream output) throws IOException {
+        try (InputStream inputStream = source.getInputStream();
+             ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+
+            ImageReader reader = firstReader(imageInputStream);
+            try {
+                reader.setInput(imageInputStream, true, true);
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+
+                // never upscale; decode at the largest integer subsampling that still leaves at least the target size
+                double scale = Math.min(1.0, Math.min((double) maxWidth / width, (double) maxHeight / height));
+                int targetWidth = Math.max(1, (int) Math.round(width * scale));
+                int targetHeight = Math.max(1, (int) Math.round(height * scale));
+                int subsampling = Math.max(1, (int) Math.floor(1 / scale));
+
+                ImageReadParam readParam = reader.getDefaultReadParam();
+                readParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                BufferedImage decoded = reader.read(0, readParam);
+
+                writeJpeg(resize(decoded, targetWidth, targetHeight), output);
+                logger.debug("Processed {}x{} image to {}x{} (subsampling {})", width, height, targetWidth, targetHeight, subsampling);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private IllegalArgumentException reject(String reason, String message) {
+        Counter.builder("image.upload.rejected").tag("reason", reason).register(meterRegistry).increment();
+        return new IllegalArgumentException(message);
+    }
+
+    private static ImageReader firstReader(ImageInputStream imageInputStream) {
+        if (imageInputStream == null) {
+            throw new IllegalArgumentException("Unreadable image.");
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(imageInputStream);
+        if (!readers.hasNext()) {
+            throw new IllegalArgumentException("Unsupported image format.");
+        }
+        return readers.next();
+    }
+
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        if (image.getWidth() == width && image.getHeight() == height && image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+
+        BufferedImage resized = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            // transparent pixels (PNG, GIF) would otherwise turn black in the JPEG
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, width, height);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+        return resized;
+    }
+
+    private void writeJpeg(BufferedImage image, OutputStream output) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        try (ImageOutputStream imageOutputStream = ImageIO.createImageOutputStream(output)) {
+            ImageWriteParam writeParam = writer.getDefaultWriteParam();
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setCompressionQuality(jpegQuality);
+
+            writer.setOutput(imageOutputStream);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            writer.dispose();
+        }
+    }
+}
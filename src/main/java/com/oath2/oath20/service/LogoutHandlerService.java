@@ -1,7 +1,6 @@
 package com.oath2.oath20.service;
 
 import com.oath2.oath20.dto.TokenType;
-import com.oath2.oath20.repository.RefreshTokenRepository;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import lombok.RequiredArgsConstructor;
@@ -14,26 +13,19 @@ import org.springframework.stereotype.Service;
 @RequiredArgsConstructor
 public class LogoutHandlerService implements LogoutHandler {
 
-    private final RefreshTokenRepository refreshTokenRepository;
+    private final RefreshTokenService refreshTokenService;
 
     @Override
     public void logout(HttpServletRequest request, HttpServletResponse response, Authentication authentication) {
 
         final String authHeader = request.getHeader(HttpHeaders.AUTHORIZATION);
 
-        if (!authHeader.startsWith(TokenType.Bearer.name())){
+        if (authHeader == null || !authHeader.startsWith(TokenType.Bearer.name())){
             return;
         }
 
         final String refreshToken = authHeader.substring(7);
 
-        var storedRefreshToken = refreshTokenRepository.findByRefreshToken(refreshToken)
-                .map(token->{
-                    token.setRevoked(true);
-                    refreshTokenRepository.save(token);
-
-                    return  token;
-                })
-                .orElse(null);
+        refreshTokenService.revokeRefreshToken(refreshToken);
     }
 }
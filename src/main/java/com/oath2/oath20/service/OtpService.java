@@ -1,53 +1,139 @@
 package com.oath2.oath20.service;
 
-import lombok.RequiredArgsConstructor;
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
 
-import java.util.Random;
-import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.HexFormat;
+import java.util.List;
 
+//  OTPs are stored as HMAC-SHA256(pepper, email:otp) rather than BCrypt: the pepper never reaches redis, so a leaked
+//  digest cannot be brute forced over the 10^6 codes, and a verification costs one HMAC and one redis round trip
 @Service
-@RequiredArgsConstructor
 public class OtpService {
+
+    private static final long LOCKED = -1;
+    private static final long MATCHED = 1;
+
+    // KEYS: otp hash, lockout key. ARGV: digest, ttl seconds. Refuses to issue a new code while the address is locked;
+    // a new code does not reset the failed attempts, those are counted per address (see VERIFY_OTP)
+    private static final RedisScript<Long> STORE_OTP = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 1 then
+                return -1
+            end
+            redis.call('DEL', KEYS[1])
+            redis.call('HSET', KEYS[1], 'digest', ARGV[1])
+            redis.call('EXPIRE', KEYS[1], ARGV[2])
+            return 1
+            """, Long.class);
+
+    // KEYS: otp hash, lockout key, attempts key. ARGV: digest, max attempts, lockout seconds.
+    // returns 1 and consumes the code on a match, 0 on a miss, -1 once the address is locked out.
+    // misses are counted per address for `lockout` seconds from the first one, across resent codes
+    private static final RedisScript<Long> VERIFY_OTP = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 1 then
+                return -1
+            end
+            local digest = redis.call('HGET', KEYS[1], 'digest')
+            if digest and digest == ARGV[1] then
+                redis.call('DEL', KEYS[1], KEYS[3])
+                return 1
+            end
+            local attempts = redis.call('INCR', KEYS[3])
+            if attempts == 1 then
+                redis.call('EXPIRE', KEYS[3], ARGV[3])
+            end
+            if attempts >= tonumber(ARGV[2]) then
+                redis.call('DEL', KEYS[1], KEYS[3])
+                redis.call('SET', KEYS[2], 1, 'EX', ARGV[3])
+                return -1
+            end
+            return 0
+            """, Long.class);
+
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
     private final StringRedisTemplate redisTemplate;
     private final EmailService emailService;
-    private final PasswordEncoder passwordEncoder;
+    private final ThreadLocal<Mac> otpMacs;
+    private final long otpExpirySeconds;
+    private final int maxAttempts;
+    private final long lockoutSeconds;
 
-    @Value("${otp.expiry.seconds}")
-    private long otpExpirySeconds;
+    public OtpService(StringRedisTemplate redisTemplate,
+                      EmailService emailService,
+                      @Value("${otp.pepper}") String pepper,
+                      @Value("${otp.expiry.seconds}") long otpExpirySeconds,
+                      @Value("${otp.max-attempts:5}") int maxAttempts,
+                      @Value("${otp.lockout.seconds:900}") long lockoutSeconds) {
+        this.redisTemplate = redisTemplate;
+        this.emailService = emailService;
+        this.otpExpirySeconds = otpExpirySeconds;
+        this.maxAttempts = maxAttempts;
+        this.lockoutSeconds = lockoutSeconds;
 
+        SecretKeySpec pepperKey = new SecretKeySpec(pepper.getBytes(StandardCharsets.UTF_8), "HmacSHA256");
+        this.otpMacs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(pepperKey);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot prepare OTP HMAC", e);
+            }
+        });
+    }
+
+    @Bulkhead(name = "redis")
+    @CircuitBreaker(name = "redis")
     public void generateAndSendOtp(String email) {
         String otp = generateNumericOtp();
-        String hashedOtp = passwordEncoder.encode(otp);
 
-        String key = "otp:" + email;
-        redisTemplate.opsForValue().set(key, hashedOtp, otpExpirySeconds, TimeUnit.SECONDS);
+        Long result = redisTemplate.execute(STORE_OTP, keys(email), digest(email, otp), String.valueOf(otpExpirySeconds));
+        if (result != null && result == LOCKED) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many invalid OTP attempts, please try again later");
+        }
 
-        emailService.sendOtpEmail(email, otp);
+        emailService.sendOtpEmail(email, otp, Duration.ofSeconds(otpExpirySeconds));
     }
 
+    @Bulkhead(name = "redis")
+    @CircuitBreaker(name = "redis")
     public boolean verifyOtp(String email, String otp) {
-        String key = "otp:" + email;
-        String hashedOtp = redisTemplate.opsForValue().get(key);
+        Long result = redisTemplate.execute(VERIFY_OTP, keys(email), digest(email, otp),
+                String.valueOf(maxAttempts), String.valueOf(lockoutSeconds));
 
-        if (hashedOtp == null) {
-            return false;
+        if (result != null && result == LOCKED) {
+            throw new ResponseStatusException(HttpStatus.TOO_MANY_REQUESTS, "Too many invalid OTP attempts, please try again later");
         }
+        return result != null && result == MATCHED;
+    }
 
-        if (passwordEncoder.matches(otp, hashedOtp)) {
-            redisTemplate.delete(key);
-            return true;
-        }
+    // one hash tag per address, so both scripts stay on one redis cluster slot
+    private static List<String> keys(String email) {
+        String tag = "{" + email + "}";
+        return List.of("otp:" + tag, "otp:" + tag + ":lock", "otp:" + tag + ":attempts");
+    }
 
-        return false;
+    // bound to the address, so a code issued for one account is useless for another
+    private String digest(String email, String otp) {
+        Mac mac = otpMacs.get();
+        return HexFormat.of().formatHex(mac.doFinal((email + ":" + otp).getBytes(StandardCharsets.UTF_8)));
     }
 
-    private String generateNumericOtp() {
-        Random random = new Random();
-        int otp = 100000 + random.nextInt(900000);
-        return String.format("%06d", otp);
+    private static String generateNumericOtp() {
+        return String.format("%06d", SECURE_RANDOM.nextInt(1_000_000));
     }
-}
\ No newline at end of file
+}
@@ -1,41 +1,158 @@
 package com.oath2.oath20.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.oath2.oath20.config.userConfig.UserPrincipalCache;
+import com.oath2.oath20.dto.PictureUploadDto;
+import com.oath2.oath20.dto.PictureUploadStatusDto;
 import com.oath2.oath20.dto.ProfileDto;
 import com.oath2.oath20.entity.UserInfoEntity;
+import com.oath2.oath20.redis.CacheInvalidationBus;
+import com.oath2.oath20.redis.TwoTierCache;
 import com.oath2.oath20.repository.UserInfoRepository;
+import com.oath2.oath20.storage.StorageGateway;
+import com.oath2.oath20.storage.StoredObject;
+import com.oath2.oath20.upload.OrphanedPictures;
+import com.oath2.oath20.upload.PictureUpload;
+import com.oath2.oath20.upload.PictureUploads;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PreDestroy;
 import jakarta.transaction.Transactional;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.InputStreamSource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.http.HttpStatus;
 import org.springframework.security.core.userdetails.UsernameNotFoundException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.server.ResponseStatusException;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
 @Service
 public class ProfileService {
     private static final Logger logger = LoggerFactory.getLogger(ProfileService.class);
 
+    // new profile pictures live under this prefix, which the CloudFront signed cookies cover
+    public static final String PROFILE_PICTURE_PREFIX = "profile-pictures/";
+    // raw client uploads waiting to be processed; the bucket should expire this prefix (lifecycle rule) for abandoned uploads
+    public static final String STAGING_PREFIX = "staging/";
+
     private final UserInfoRepository userInfoRepository;
-    private final S3Service s3Service;
+    private final StorageGateway storageGateway;
+    private final ImageService imageService;
     private final CloudFrontService cloudFrontService;
+    private final UserPrincipalCache userPrincipalCache;
+    private final TwoTierCache<CachedProfile> profileCache;
+    private final TransactionTemplate transactionTemplate;
+    private final ExecutorService uploadExecutor;
+    private final Duration uploadTimeout;
+    private final PictureUploads pictureUploads;
+    private final OrphanedPictures orphanedPictures;
+    private final Counter deduplicatedUploads;
+    private final Duration stagedUploadValidity;
+
+    // pictureUnsigned marks a profile built while its picture URL could not be signed (cloudfront fallback)
+    record CachedProfile(ProfileDto profile, boolean pictureUnsigned) {
+    }
 
     public ProfileService(UserInfoRepository userInfoRepository,
-                          S3Service s3Service,
-                          CloudFrontService cloudFrontService) {
+                          StorageGateway storageGateway,
+                          ImageService imageService,
+                          CloudFrontService cloudFrontService,
+                          UserPrincipalCache userPrincipalCache,
+                          StringRedisTemplate redisTemplate,
+                          ObjectMapper objectMapper,
+                          CacheInvalidationBus cacheInvalidationBus,
+                          MeterRegistry meterRegistry,
+                          PlatformTransactionManager transactionManager,
+                          PictureUploads pictureUploads,
+                          OrphanedPictures orphanedPictures,
+                          @Value("${profile.cache.maximum-size:10000}") long maximumSize,
+                          @Value("${profile.cache.local-ttl:PT1M}") Duration localTtl,
+                          @Value("${profile.cache.url-validity-margin:PT10M}") Duration urlValidityMargin,
+                          @Value("${image.upload.threads:0}") int uploadThreads,
+                          @Value("${image.upload.queue-capacity:16}") int uploadQueueCapacity,
+                          @Value("${image.upload.timeout:PT30S}") Duration uploadTimeout,
+                          @Value("${picture.upload.url-validity:PT15M}") Duration stagedUploadValidity) {
         this.userInfoRepository = userInfoRepository;
-        this.s3Service = s3Service;
+        this.storageGateway = storageGateway;
+        this.imageService = imageService;
         this.cloudFrontService = cloudFrontService;
+        this.userPrincipalCache = userPrincipalCache;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.uploadTimeout = uploadTimeout;
+        this.pictureUploads = pictureUploads;
+        this.orphanedPictures = orphanedPictures;
+        this.deduplicatedUploads = Counter.builder("picture.upload.deduplicated").register(meterRegistry);
+        this.stagedUploadValidity = stagedUploadValidity;
+
+        // bounds how many uploads are decoded and held in memory at once; beyond the queue requests get a 503
+        int poolSize = uploadThreads > 0 ? uploadThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(uploadQueueCapacity),
+                runnable -> new Thread(runnable, "picture-upload-" + threadNumber.incrementAndGet()),
+                new ThreadPoolExecutor.AbortPolicy());
+        this.uploadExecutor = ExecutorServiceMetrics.monitor(meterRegistry, executor, "profilePictureUpload");
+
+        // a cached profile can be up to sharedTtl + localTtl old, its picture URL must still be valid for the margin by then
+        Duration sharedTtl = cloudFrontService.getMinimumUrlValidity().minus(urlValidityMargin).minus(localTtl);
+        if (sharedTtl.isNegative() || sharedTtl.isZero()) {
+            throw new IllegalStateException("profile.cache.local-ttl + url-validity-margin must be shorter than the signed URL validity");
+        }
+        this.profileCache = new TwoTierCache<>("profile", CachedProfile.class, maximumSize,
+                localTtl, sharedTtl, redisTemplate, objectMapper, cacheInvalidationBus, meterRegistry);
     }
 
     public ProfileDto getProfile(String username) {
         logger.debug("Fetching profile for user: {}", username);
-        return userInfoRepository.findByUsername(username)
-                .map(this::convertToDto)
+        // a degraded profile is served but not kept, the next read tries to sign the picture again
+        return profileCache.get(username, this::loadProfile, cachedProfile -> !cachedProfile.pictureUnsigned())
+                .profile();
+    }
+
+    private CachedProfile loadProfile(String username) {
+        UserInfoEntity user = userInfoRepository.findByUsername(username)
                 .orElseThrow(() -> {
                     logger.warn("User not found: {}", username);
                     return new UsernameNotFoundException("User not found: " + username);
                 });
+
+        ProfileDto profileDto = convertToDto(user);
+        return new CachedProfile(profileDto, user.getProfilePictureKey() != null && profileDto.profilePictureUrl() == null);
     }
 
     @Transactional
@@ -49,31 +166,266 @@ public class ProfileService {
 
         updateUserFields(user, profileDto);
         UserInfoEntity savedUser = userInfoRepository.save(user);
+        userPrincipalCache.invalidate(savedUser.getEmailId());
+        invalidateProfileAfterCommit(username);
         logger.info("Profile updated successfully for user: {}", username);
         return convertToDto(savedUser);
     }
 
-    @Transactional
+    //  resizing and the S3 round trips run on the upload executor with no transaction open;
+    //  the transaction only swaps profilePictureKey, and the old object is deleted in the background once that committed
     public ProfileDto updateProfilePicture(String username, MultipartFile file) {
         logger.debug("Updating profile picture for user: {}", username);
-        UserInfoEntity user = userInfoRepository.findByUsername(username)
-                .orElseThrow(() -> {
-                    logger.warn("User not found: {}", username);
-                    return new UsernameNotFoundException("User not found: " + username);
-                });
+        if (userInfoRepository.findByUsername(username).isEmpty()) {
+            logger.warn("User not found: {}", username);
+            throw new UsernameNotFoundException("User not found: " + username);
+        }
+
+        String newImageKey = awaitUpload(file);
+        UserInfoEntity savedUser = swapProfilePicture(username, newImageKey);
+        logger.info("Profile picture updated successfully for user: {}", username);
+        return convertToDto(savedUser);
+    }
 
-        String newImageKey = s3Service.uploadFile(file);
-        String oldImageKey = user.getProfilePictureKey();
+    //  two-phase upload: the client PUTs the picture straight to the staging prefix, then completes the upload and polls
+    //  its status while a processing worker promotes it (see promoteStagedPicture)
+    public PictureUploadDto startPictureUpload(String username) {
+        if (userInfoRepository.findByUsername(username).isEmpty()) {
+            logger.warn("User not found: {}", username);
+            throw new UsernameNotFoundException("User not found: " + username);
+        }
 
-        user.setProfilePictureKey(newImageKey);
-        UserInfoEntity savedUser = userInfoRepository.save(user);
+        String uploadId = UUID.randomUUID().toString();
+        String stagingKey = STAGING_PREFIX + uploadId;
+        Instant expiresAt = Instant.now().plus(stagedUploadValidity);
+        final URL uploadUrl;
+        try {
+            uploadUrl = storageGateway.presignPut(stagingKey, "image/jpeg", stagedUploadValidity).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UnsupportedOperationException) {
+                throw new ResponseStatusException(HttpStatus.NOT_IMPLEMENTED, "Direct uploads are not available, upload the picture itself instead");
+            }
+            throw e;
+        }
+
+        pictureUploads.create(uploadId, username, stagingKey);
+        return new PictureUploadDto(uploadId, uploadUrl.toString(), expiresAt);
+    }
 
-        if (oldImageKey != null) {
-            s3Service.deleteFile(oldImageKey);
+    public PictureUploadStatusDto completePictureUpload(String username, String uploadId) {
+        findPictureUpload(username, uploadId);
+        if (pictureUploads.enqueue(uploadId)) {
+            logger.debug("Queued picture upload {} of user {}", uploadId, username);
         }
+        return toStatusDto(findPictureUpload(username, uploadId));
+    }
 
-        logger.info("Profile picture updated successfully for user: {}", username);
-        return convertToDto(savedUser);
+    public PictureUploadStatusDto getPictureUploadStatus(String username, String uploadId) {
+        return toStatusDto(findPictureUpload(username, uploadId));
+    }
+
+    // runs on a processing worker; a rejected image only fails this upload, the current picture stays
+    public void promoteStagedPicture(String uploadId) {
+        Optional<PictureUpload> found = pictureUploads.find(uploadId);
+        if (found.isEmpty() || !pictureUploads.startProcessing(uploadId)) {
+            // expired, or already taken by another worker before this entry was replayed or claimed
+            return;
+        }
+        PictureUpload pictureUpload = found.get();
+
+        try {
+            String newImageKey = promoteStagedUpload(pictureUpload.stagingKey());
+            swapProfilePicture(pictureUpload.username(), newImageKey);
+            pictureUploads.markDone(uploadId, newImageKey);
+            logger.info("Profile picture updated successfully for user: {}", pictureUpload.username());
+        } catch (IllegalArgumentException | UsernameNotFoundException e) {
+            pictureUploads.markFailed(uploadId, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            pictureUploads.markFailed(uploadId, "Processing failed, please upload again.");
+            throw new IllegalStateException("Processing picture upload " + uploadId + " failed", e);
+        } finally {
+            deleteInBackground(pictureUpload.stagingKey());
+        }
+    }
+
+    //  the size is checked from the staged object's metadata, then it is copied to a temp file once, so decoding
+    //  never depends on a long running download. Waiting is fine here, this runs on a virtual worker thread
+    private String promoteStagedUpload(String stagingKey) throws IOException {
+        StoredObject staged = unwrap(storageGateway.head(stagingKey))
+                .orElseThrow(() -> new IllegalArgumentException("No file was uploaded."));
+        imageService.checkUploadSize(staged.size());
+
+        Path stagedFile = Files.createTempFile("staged-picture-", ".upload");
+        try {
+            unwrap(storageGateway.download(stagingKey, stagedFile));
+            return unwrap(storeProfilePicture(new FileSystemResource(stagedFile), staged.size()));
+        } finally {
+            Files.deleteIfExists(stagedFile);
+        }
+    }
+
+    //  validates the upload and stores the processed picture under the SHA-256 of its bytes, so identical pictures share
+    //  one object (and one CDN entry). The picture is encoded to a temp file first, the key is only known once it is
+    //  complete. The caller's thread decodes, encodes and makes the HEAD request, which skips storing an object that
+    //  already exists; the returned future completes with the key once storage confirmed the object
+    private CompletableFuture<String> storeProfilePicture(InputStreamSource image, long sizeInBytes) {
+        try {
+            imageService.validateUpload(image, sizeInBytes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The image is corrupt or unreadable.", e);
+        }
+
+        Path processedFile = null;
+        try {
+            processedFile = Files.createTempFile("profile-picture-", ".jpg");
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (OutputStream output = new DigestOutputStream(Files.newOutputStream(processedFile), digest)) {
+                imageService.writeProfilePicture(image, output);
+            }
+            String fileKey = PROFILE_PICTURE_PREFIX + HexFormat.of().formatHex(digest.digest()) + ".jpg";
+
+            // pinned before the lookup: the sweep leaves the object alone until the reference below is committed, a delete
+            // that is already running finishes first and the object is stored again
+            orphanedPictures.pin(fileKey);
+            if (unwrap(storageGateway.head(fileKey)).isPresent()) {
+                deduplicatedUploads.increment();
+                Files.deleteIfExists(processedFile);
+                return CompletableFuture.completedFuture(fileKey);
+            }
+
+            Path storedFile = processedFile;
+            return storageGateway.put(fileKey, "image/jpeg", output -> Files.copy(storedFile, output))
+                    .whenComplete((ignored, failure) -> deleteQuietly(storedFile))
+                    .thenApply(ignored -> fileKey);
+        } catch (IOException e) {
+            deleteQuietly(processedFile);
+            throw new UncheckedIOException("Failed to process the picture", e);
+        } catch (NoSuchAlgorithmException e) {
+            deleteQuietly(processedFile);
+            throw new IllegalStateException("SHA-256 is not available", e);
+        } catch (RuntimeException e) {
+            deleteQuietly(processedFile);
+            throw e;
+        }
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.warn("Failed to delete temp file {}", file, e);
+        }
+    }
+
+    private static <T> T unwrap(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException runtimeException ? runtimeException : e;
+        }
+    }
+
+    private PictureUpload findPictureUpload(String username, String uploadId) {
+        return pictureUploads.find(uploadId)
+                .filter(pictureUpload -> pictureUpload.username().equals(username))
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Unknown picture upload " + uploadId));
+    }
+
+    private PictureUploadStatusDto toStatusDto(PictureUpload pictureUpload) {
+        String pictureUrl = pictureUpload.profilePictureKey() == null ? null : profilePictureUrl(pictureUpload.profilePictureKey());
+        return new PictureUploadStatusDto(pictureUpload.uploadId(), pictureUpload.state(), pictureUrl, pictureUpload.error());
+    }
+
+    //  the only work done in a transaction: point the user at the stored picture; once that committed, the old object
+    //  is deleted unless another user still points at it
+    private UserInfoEntity swapProfilePicture(String username, String newImageKey) {
+        try {
+            return transactionTemplate.execute(status -> {
+                UserInfoEntity user = userInfoRepository.findByUsername(username)
+                        .orElseThrow(() -> new UsernameNotFoundException("User not found: " + username));
+                String oldImageKey = user.getProfilePictureKey();
+
+                user.setProfilePictureKey(newImageKey);
+                UserInfoEntity updatedUser = userInfoRepository.save(user);
+                invalidateProfileAfterCommit(username);
+
+                if (oldImageKey != null && !oldImageKey.equals(newImageKey)) {
+                    afterCommit(() -> orphanedPictures.schedule(oldImageKey));
+                }
+                return updatedUser;
+            });
+        } catch (RuntimeException e) {
+            // other users may share the new object, it is only deleted if nobody points at it
+            orphanedPictures.schedule(newImageKey);
+            throw e;
+        }
+    }
+
+    // decoding and encoding hold an upload executor thread; sending the parts does not
+    private String awaitUpload(MultipartFile file) {
+        final CompletableFuture<String> upload;
+        try {
+            upload = CompletableFuture.supplyAsync(() -> storeProfilePicture(file, file.getSize()), uploadExecutor)
+                    .thenCompose(Function.identity());
+        } catch (RejectedExecutionException e) {
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many picture uploads in progress, please try again shortly");
+        }
+
+        try {
+            return upload.get(uploadTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            // cancelling would not stop the encoding or the put, nobody references what they store once they finish
+            upload.thenAccept(orphanedPictures::schedule);
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Picture upload timed out, please try again");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Picture upload interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Picture upload failed", e.getCause());
+        }
+    }
+
+    // nothing waits for the delete, a failed one only leaves an unreferenced object behind
+    private void deleteInBackground(String objectKey) {
+        try {
+            storageGateway.delete(objectKey)
+                    .exceptionally(failure -> {
+                        logger.warn("Failed to delete {}", objectKey, failure);
+                        return null;
+                    });
+        } catch (RuntimeException e) {
+            logger.warn("Failed to delete {}", objectKey, e);
+        }
+    }
+
+    // evicting before the commit would let a concurrent read put the old row straight back into the cache
+    private void invalidateProfileAfterCommit(String username) {
+        afterCommit(() -> profileCache.invalidate(username));
+    }
+
+    private static void afterCommit(Runnable action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run();
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                action.run();
+            }
+        });
+    }
+
+    @PreDestroy
+    void shutdown() {
+        uploadExecutor.shutdown();
     }
 
     private ProfileDto convertToDto(UserInfoEntity user) {
@@ -81,7 +433,7 @@ public class ProfileService {
                 user.getUsername(),
                 user.getFullName(),
                 Optional.ofNullable(user.getProfilePictureKey())
-                        .map(cloudFrontService::getSignedUrl)
+                        .map(this::profilePictureUrl)
                         .orElse(null),
                 user.getBio(),
                 user.getUserRole(),
@@ -90,6 +442,12 @@ public class ProfileService {
         );
     }
 
+    private String profilePictureUrl(String profilePictureKey) {
+        return cloudFrontService.isServedWithSignedCookies(profilePictureKey)
+                ? cloudFrontService.getUnsignedUrl(profilePictureKey)
+                : cloudFrontService.getSignedUrl(profilePictureKey);
+    }
+
     private void updateUserFields(UserInfoEntity user, ProfileDto profileDto) {
         user.setFullName(profileDto.fullName());
         user.setBio(profileDto.bio());
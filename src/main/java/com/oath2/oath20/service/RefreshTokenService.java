@@ -0,0 +1,106 @@
+package com.oath2.oath20.service;
+
+import com.oath2.oath20.config.jwtConfig.JwtTokenGenerator;
+import com.oath2.oath20.entity.RefreshTokenEntity;
+import com.oath2.oath20.entity.UserInfoEntity;
+import com.oath2.oath20.repository.RefreshTokenRepository;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.Authentication;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HexFormat;
+import java.util.Optional;
+
+@Service
+@RequiredArgsConstructor
+public class RefreshTokenService {
+
+    public static final Duration REFRESH_TOKEN_VALIDITY = Duration.ofDays(15);
+
+    private static final int OPAQUE_TOKEN_BYTES = 32;
+    private static final SecureRandom SECURE_RANDOM = new SecureRandom();
+
+    private final RefreshTokenRepository refreshTokenRepository;
+    private final JwtTokenGenerator jwtTokenGenerator;
+
+    // OPAQUE issues short random tokens, JWT keeps issuing signed refresh tokens; both are stored by digest only
+    @Value("${jwt.refresh-token.mode:OPAQUE}")
+    private RefreshTokenMode refreshTokenMode;
+
+    // keeps JWT refresh tokens stored before TOKEN_HASH existed usable until they run out (15 days)
+    @Value("${jwt.refresh-token.legacy-lookup-enabled:true}")
+    private boolean legacyLookupEnabled;
+
+    public enum RefreshTokenMode {
+        OPAQUE, JWT
+    }
+
+    public String issueRefreshToken(UserInfoEntity userInfoEntity, Authentication authentication, Instant issuedAt) {
+        final String refreshToken = refreshTokenMode == RefreshTokenMode.OPAQUE
+                ? generateOpaqueToken()
+                : jwtTokenGenerator.generateRefreshToken(authentication, issuedAt);
+
+        var refreshTokenEntity = RefreshTokenEntity.builder()
+                .user(userInfoEntity)
+                .tokenHash(hash(refreshToken))
+                .expiresAt(issuedAt.plus(REFRESH_TOKEN_VALIDITY))
+                .revoked(false)
+                .build();
+
+        refreshTokenRepository.save(refreshTokenEntity);
+        return refreshToken;
+    }
+
+    public Optional<RefreshTokenEntity> findRefreshToken(String refreshToken) {
+        Optional<RefreshTokenEntity> refreshTokenEntity = refreshTokenRepository.findByTokenHash(hash(refreshToken));
+
+        if (refreshTokenEntity.isEmpty() && legacyLookupEnabled && !isOpaque(refreshToken)) {
+            return refreshTokenRepository.findByRefreshToken(refreshToken);
+        }
+        return refreshTokenEntity;
+    }
+
+    public Optional<RefreshTokenEntity> findActiveRefreshToken(String refreshToken) {
+        return findRefreshToken(refreshToken).filter(RefreshTokenService::isActive);
+    }
+
+    public void revokeRefreshToken(String refreshToken) {
+        findRefreshToken(refreshToken).ifPresent(token -> {
+            token.setRevoked(true);
+            refreshTokenRepository.save(token);
+        });
+    }
+
+    public static boolean isActive(RefreshTokenEntity refreshTokenEntity) {
+        return !refreshTokenEntity.isRevoked()
+                && (refreshTokenEntity.getExpiresAt() == null || refreshTokenEntity.getExpiresAt().isAfter(Instant.now()));
+    }
+
+    // a JWT always has three dot separated parts, the opaque token is plain base64url
+    public static boolean isOpaque(String refreshToken) {
+        return refreshToken.indexOf('.') < 0;
+    }
+
+    private static String generateOpaqueToken() {
+        byte[] randomBytes = new byte[OPAQUE_TOKEN_BYTES];
+        SECURE_RANDOM.nextBytes(randomBytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(randomBytes);
+    }
+
+    private static String hash(String refreshToken) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(refreshToken.getBytes(StandardCharsets.US_ASCII));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
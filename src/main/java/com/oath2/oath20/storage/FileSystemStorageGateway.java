@@ -0,0 +1,104 @@
+package com.oath2.oath20.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+//  objects as files under `storage.filesystem.root`, for tests and single node deployments without S3.
+//  local file operations are quick, so they run on the calling thread and return completed futures.
+//  there is no presigned upload, the two-phase picture upload is not available on this backend
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "filesystem")
+public class FileSystemStorageGateway implements StorageGateway {
+    private static final Logger logger = LoggerFactory.getLogger(FileSystemStorageGateway.class);
+
+    private final Path root;
+
+    public FileSystemStorageGateway(@Value("${storage.filesystem.root:./storage}") Path root) throws IOException {
+        this.root = Files.createDirectories(root.toAbsolutePath().normalize());
+        logger.info("Storing objects under {}", this.root);
+    }
+
+    @Override
+    public CompletableFuture<Void> put(String key, String contentType, ContentWriter writer) {
+        try {
+            Path target = resolve(key);
+            Files.createDirectories(target.getParent());
+            // written next to the target and moved into place, readers never see a partial object
+            Path temporary = Files.createTempFile(target.getParent(), ".upload-", ".tmp");
+            try {
+                try (OutputStream output = Files.newOutputStream(temporary)) {
+                    writer.writeTo(output);
+                }
+                Files.move(temporary, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> download(String key, Path target) {
+        try {
+            Files.copy(resolve(key), target, StandardCopyOption.REPLACE_EXISTING);
+            return CompletableFuture.completedFuture(null);
+        } catch (NoSuchFileException e) {
+            return CompletableFuture.failedFuture(new ObjectNotFoundException(key));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Optional<StoredObject>> head(String key) {
+        try {
+            Path path = resolve(key);
+            if (!Files.isRegularFile(path)) {
+                return CompletableFuture.completedFuture(Optional.empty());
+            }
+            return CompletableFuture.completedFuture(Optional.of(new StoredObject(key, Files.size(path), Files.probeContentType(path))));
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> delete(String key) {
+        try {
+            Files.deleteIfExists(resolve(key));
+            return CompletableFuture.completedFuture(null);
+        } catch (IOException | RuntimeException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    @Override
+    public CompletableFuture<URL> presignPut(String key, String contentType, Duration validity) {
+        return CompletableFuture.failedFuture(new UnsupportedOperationException("The filesystem storage cannot presign uploads"));
+    }
+
+    // keys come from this application, still never let one escape the root
+    private Path resolve(String key) {
+        Path path = root.resolve(key).normalize();
+        if (!path.startsWith(root)) {
+            throw new IllegalArgumentException("Invalid object key " + key);
+        }
+        return path;
+    }
+}
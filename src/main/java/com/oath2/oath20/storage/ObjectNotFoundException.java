@@ -0,0 +1,8 @@
+package com.oath2.oath20.storage;
+
+public class ObjectNotFoundException extends RuntimeException {
+
+    public ObjectNotFoundException(String key) {
+        super("No object stored under " + key);
+    }
+}
@@ -0,0 +1,46 @@
+package com.oath2.oath20.storage;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//  fixed-size part buffers shared by every upload. At most `maxBuffers` are ever allocated, so uploads in flight
+//  hold at most maxBuffers * partSize bytes; a writer that needs another buffer waits until a part upload returns one
+public class PartBufferPool {
+
+    private final int partSize;
+    private final int maxBuffers;
+    private final BlockingQueue<byte[]> freeBuffers;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    public PartBufferPool(int partSize, int maxBuffers) {
+        this.partSize = partSize;
+        this.maxBuffers = maxBuffers;
+        this.freeBuffers = new ArrayBlockingQueue<>(maxBuffers);
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public byte[] acquire() throws InterruptedException {
+        byte[] buffer = freeBuffers.poll();
+        if (buffer != null) {
+            return buffer;
+        }
+
+        while (true) {
+            int current = allocated.get();
+            if (current >= maxBuffers) {
+                return freeBuffers.take();
+            }
+            if (allocated.compareAndSet(current, current + 1)) {
+                return new byte[partSize];
+            }
+        }
+    }
+
+    public void release(byte[] buffer) {
+        freeBuffers.offer(buffer);
+    }
+}
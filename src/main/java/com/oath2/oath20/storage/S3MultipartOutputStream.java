@@ -0,0 +1,204 @@
+package com.oath2.oath20.storage;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+//  writes an object to S3 as it is produced. Bytes are collected in pooled part buffers; every full buffer is sent as one
+//  part by the async client while the writer fills the next one, and goes back to the pool once S3 acknowledged it.
+//  An object smaller than one part is sent with a single PutObject. complete() finishes the upload, abort() discards it
+public class S3MultipartOutputStream extends OutputStream {
+    private static final Logger logger = LoggerFactory.getLogger(S3MultipartOutputStream.class);
+
+    private final S3AsyncClient s3Client;
+    private final String bucketName;
+    private final String objectKey;
+    private final String contentType;
+    private final PartBufferPool bufferPool;
+    private final List<CompletableFuture<CompletedPart>> partUploads = new ArrayList<>();
+
+    private byte[] buffer;
+    private int position;
+    private int partNumber;
+    private CompletableFuture<String> uploadId;
+    private boolean closed;
+
+    public S3MultipartOutputStream(S3AsyncClient s3Client, String bucketName, String objectKey, String contentType,
+                                   PartBufferPool bufferPool) {
+        this.s3Client = s3Client;
+        this.bucketName = bucketName;
+        this.objectKey = objectKey;
+        this.contentType = contentType;
+        this.bufferPool = bufferPool;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        ensureBuffer();
+        buffer[position++] = (byte) b;
+        if (position == buffer.length) {
+            uploadPart();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            ensureBuffer();
+            int chunk = Math.min(length, buffer.length - position);
+            System.arraycopy(bytes, offset, buffer, position, chunk);
+            position += chunk;
+            offset += chunk;
+            length -= chunk;
+            if (position == buffer.length) {
+                uploadPart();
+            }
+        }
+    }
+
+    // sends what is left and completes once the whole object is stored; a failed upload is aborted
+    public CompletableFuture<Void> complete() {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Stream closed"));
+        }
+        if (uploadId == null) {
+            closed = true;
+            return putSingleObject();
+        }
+
+        if (position > 0) {
+            uploadPart();
+        }
+        closed = true;
+        releaseBuffer();
+
+        return CompletableFuture.allOf(partUploads.toArray(CompletableFuture[]::new))
+                .thenCompose(ignored -> uploadId)
+                .thenCompose(id -> s3Client.completeMultipartUpload(request -> request
+                        .bucket(bucketName)
+                        .key(objectKey)
+                        .uploadId(id)
+                        .multipartUpload(upload -> upload.parts(partUploads.stream().map(CompletableFuture::join).toList()))))
+                .<Void>thenApply(response -> null)
+                .whenComplete((ignored, failure) -> {
+                    if (failure != null) {
+                        abortUpload();
+                    }
+                });
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        try {
+            complete().join();
+        } catch (CompletionException e) {
+            throw new IOException("Failed to upload " + objectKey, e.getCause());
+        }
+    }
+
+    // drops everything written so far, nothing becomes visible under the key
+    public void abort() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseBuffer();
+        if (uploadId != null) {
+            abortUpload();
+        }
+    }
+
+    private void ensureBuffer() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+        if (buffer == null) {
+            try {
+                buffer = bufferPool.acquire();
+                position = 0;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for an upload buffer");
+            }
+        }
+    }
+
+    private void uploadPart() {
+        if (uploadId == null) {
+            uploadId = s3Client.createMultipartUpload(request -> request.bucket(bucketName).key(objectKey).contentType(contentType))
+                    .thenApply(CreateMultipartUploadResponse::uploadId);
+        }
+
+        final byte[] partBuffer = buffer;
+        final int partLength = position;
+        final int currentPartNumber = ++partNumber;
+        buffer = null;
+        position = 0;
+
+        partUploads.add(uploadId
+                .thenCompose(id -> s3Client.uploadPart(request -> request
+                                .bucket(bucketName)
+                                .key(objectKey)
+                                .uploadId(id)
+                                .partNumber(currentPartNumber)
+                                .contentLength((long) partLength),
+                        AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(partBuffer, 0, partLength))))
+                .thenApply(response -> CompletedPart.builder().partNumber(currentPartNumber).eTag(response.eTag()).build())
+                .whenComplete((part, failure) -> bufferPool.release(partBuffer)));
+    }
+
+    private CompletableFuture<Void> putSingleObject() {
+        final byte[] content = buffer;
+        final int length = position;
+        buffer = null;
+
+        AsyncRequestBody body = content == null
+                ? AsyncRequestBody.empty()
+                : AsyncRequestBody.fromByteBufferUnsafe(ByteBuffer.wrap(content, 0, length));
+        return s3Client.putObject(request -> request
+                        .bucket(bucketName)
+                        .key(objectKey)
+                        .contentType(contentType)
+                        .contentLength((long) length), body)
+                .<Void>thenApply(response -> null)
+                .whenComplete((ignored, failure) -> {
+                    if (content != null) {
+                        bufferPool.release(content);
+                    }
+                });
+    }
+
+    // parts still in flight could otherwise be stored after the abort
+    private void abortUpload() {
+        CompletableFuture.allOf(partUploads.toArray(CompletableFuture[]::new))
+                .handle((ignored, failure) -> null)
+                .thenCompose(ignored -> uploadId)
+                .thenCompose(id -> s3Client.abortMultipartUpload(request -> request.bucket(bucketName).key(objectKey).uploadId(id)))
+                .exceptionally(failure -> {
+                    logger.warn("Failed to abort multipart upload of {}", objectKey, failure);
+                    return null;
+                });
+    }
+
+    private void releaseBuffer() {
+        if (buffer != null) {
+            bufferPool.release(buffer);
+            buffer = null;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.oath2.oath20.storage;
+
+import io.github.resilience4j.bulkhead.annotation.Bulkhead;
+import io.github.resilience4j.circuitbreaker.annotation.CircuitBreaker;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.http.nio.netty.NettyNioAsyncHttpClient;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+//  S3 through the async client: requests share one pooled Netty connection pool (`max-connections`) and no thread
+//  is parked while S3 answers. The "s3" bulkhead and breaker count calls until their futures complete
+@Component
+@ConditionalOnProperty(name = "storage.backend", havingValue = "s3", matchIfMissing = true)
+public class S3StorageGateway implements StorageGateway {
+    private static final Logger logger = LoggerFactory.getLogger(S3StorageGateway.class);
+
+    private final S3AsyncClient s3Client;
+    private final S3Presigner presigner;
+    private final String bucketName;
+    private final PartBufferPool partBufferPool;
+
+    public S3StorageGateway(@Value("${aws.s3.bucket-name}") String bucketName,
+                            @Value("${aws.region}") String region,
+                            @Value("${aws.access-key-id:}") String accessKey,
+                            @Value("${aws.secret-access-key:}") String secretKey,
+                            @Value("${aws.s3.connection-timeout-ms:2000}") int connectionTimeoutMs,
+                            @Value("${aws.s3.request-timeout-ms:10000}") int requestTimeoutMs,
+                            @Value("${aws.s3.max-connections:64}") int maxConnections,
+                            @Value("${aws.s3.endpoint:}") String endpoint,
+                            @Value("${aws.s3.multipart.part-size:5242880}") int partSize,
+                            @Value("${aws.s3.multipart.buffers:8}") int partBuffers) {
+        // without configured keys the default chain applies (environment, instance or task role)
+        AwsCredentialsProvider credentialsProvider = accessKey.isBlank()
+                ? DefaultCredentialsProvider.create()
+                : StaticCredentialsProvider.create(AwsBasicCredentials.create(accessKey, secretKey));
+        // an S3 compatible stand-in (minio, localstack) for local runs, those only serve path style bucket URLs
+        S3Configuration s3Configuration = S3Configuration.builder().pathStyleAccessEnabled(!endpoint.isBlank()).build();
+
+        S3AsyncClientBuilder clientBuilder = S3AsyncClient.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider)
+                .serviceConfiguration(s3Configuration)
+                .httpClientBuilder(NettyNioAsyncHttpClient.builder()
+                        .maxConcurrency(maxConnections)
+                        .connectionTimeout(Duration.ofMillis(connectionTimeoutMs))
+                        .readTimeout(Duration.ofMillis(requestTimeoutMs)))
+                // bound every call, a stalled S3 would otherwise hold its bulkhead permit indefinitely
+                .overrideConfiguration(ClientOverrideConfiguration.builder()
+                        .apiCallTimeout(Duration.ofMillis(requestTimeoutMs))
+                        .build());
+        S3Presigner.Builder presignerBuilder = S3Presigner.builder()
+                .region(Region.of(region))
+                .credentialsProvider(credentialsProvider)
+                .serviceConfiguration(s3Configuration);
+        if (!endpoint.isBlank()) {
+            clientBuilder.endpointOverride(URI.create(endpoint));
+            presignerBuilder.endpointOverride(URI.create(endpoint));
+        }
+
+        this.s3Client = clientBuilder.build();
+        this.presigner = presignerBuilder.build();
+        this.bucketName = bucketName;
+        // uploads stream through at most `buffers` part buffers in total, whatever the number of concurrent uploads
+        this.partBufferPool = new PartBufferPool(partSize, partBuffers);
+        logger.info("Initialized S3 client with region: {}, endpoint: {} and bucket: {}", region, endpoint.isBlank() ? "default" : endpoint, bucketName);
+    }
+
+    @Override
+    @Bulkhead(name = "s3")
+    @CircuitBreaker(name = "s3")
+    public CompletableFuture<Void> put(String key, String contentType, ContentWriter writer) {
+        // nothing is stored under the key unless the writer finished
+        S3MultipartOutputStream objectStream = new S3MultipartOutputStream(s3Client, bucketName, key, contentType, partBufferPool);
+        try {
+            writer.writeTo(objectStream);
+        } catch (IOException | RuntimeException e) {
+            objectStream.abort();
+            return CompletableFuture.failedFuture(e);
+        }
+        return objectStream.complete()
+                .whenComplete((ignored, failure) -> log("upload", key, failure));
+    }
+
+    @Override
+    @Bulkhead(name = "s3")
+    @CircuitBreaker(name = "s3")
+    public CompletableFuture<Void> download(String key, Path target) {
+        return s3Client.getObject(request -> request.bucket(bucketName).key(key), AsyncResponseTransformer.toFile(target))
+                .<Void>thenApply(response -> null)
+                .exceptionallyCompose(failure -> CompletableFuture.failedFuture(isNotFound(failure) ? new ObjectNotFoundException(key) : failure));
+    }
+
+    @Override
+    @Bulkhead(name = "s3")
+    @CircuitBreaker(name = "s3")
+    public CompletableFuture<Optional<StoredObject>> head(String key) {
+        return s3Client.headObject(request -> request.bucket(bucketName).key(key))
+                .thenApply(response -> Optional.of(new StoredObject(key, response.contentLength(), response.contentType())))
+                .exceptionallyCompose(failure -> isNotFound(failure)
+                        ? CompletableFuture.completedFuture(Optional.empty())
+                        : CompletableFuture.failedFuture(failure));
+    }
+
+    @Override
+    @Bulkhead(name = "s3")
+    @CircuitBreaker(name = "s3")
+    public CompletableFuture<Void> delete(String key) {
+        return s3Client.deleteObject(request -> request.bucket(bucketName).key(key))
+                .<Void>thenApply(response -> null)
+                .whenComplete((ignored, failure) -> log("delete", key, failure));
+    }
+
+    // signing is local, no request is made
+    @Override
+    public CompletableFuture<URL> presignPut(String key, String contentType, Duration validity) {
+        URL url = presigner.presignPutObject(request -> request
+                .signatureDuration(validity)
+                .putObjectRequest(object -> object.bucket(bucketName).key(key).contentType(contentType))).url();
+        logger.info("Generated pre-signed upload URL for object: {}", key);
+        return CompletableFuture.completedFuture(url);
+    }
+
+    @PreDestroy
+    void shutdown() {
+        presigner.close();
+        s3Client.close();
+    }
+
+    private static boolean isNotFound(Throwable failure) {
+        Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+        return cause instanceof NoSuchKeyException || (cause instanceof S3Exception s3Exception && s3Exception.statusCode() == 404);
+    }
+
+    private static void log(String operation, String key, Throwable failure) {
+        if (failure == null) {
+            logger.info("Successful S3 {} of {}", operation, key);
+        } else {
+            logger.error("S3 {} of {} failed", operation, key, failure);
+        }
+    }
+}
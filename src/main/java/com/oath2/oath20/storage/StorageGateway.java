@@ -0,0 +1,32 @@
+package com.oath2.oath20.storage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URL;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+//  object storage as used by the profile pictures. Every operation returns at once and completes its future when the
+//  store answered, so no thread waits on storage latency; failures complete the future exceptionally
+public interface StorageGateway {
+
+    // produces the object's bytes; runs on the calling thread, the returned future completes once they are stored
+    @FunctionalInterface
+    interface ContentWriter {
+        void writeTo(OutputStream output) throws IOException;
+    }
+
+    CompletableFuture<Void> put(String key, String contentType, ContentWriter writer);
+
+    // copies the object into target, completes exceptionally with ObjectNotFoundException when there is none
+    CompletableFuture<Void> download(String key, Path target);
+
+    CompletableFuture<Optional<StoredObject>> head(String key);
+
+    CompletableFuture<Void> delete(String key);
+
+    // a URL the client can PUT the object to directly, sending the given Content-Type
+    CompletableFuture<URL> presignPut(String key, String contentType, Duration validity);
+}
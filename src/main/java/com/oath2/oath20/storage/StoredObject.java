@@ -0,0 +1,4 @@
+package com.oath2.oath20.storage;
+
+public record StoredObject(String key, long size, String contentType) {
+}
@@ -0,0 +1,169 @@
+package com.oath2.oath20.upload;
+
+import com.oath2.oath20.repository.UserInfoRepository;
+import com.oath2.oath20.storage.StorageGateway;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.http.HttpStatus;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+//  deletes profile pictures nobody points at anymore. Identical pictures share one content-addressed object, so the
+//  reference count is the number of users whose PROFILE_PICTURE_KEY is the key. A key that lost a reference waits in a
+//  ZSET for `delete-delay` and is counted again then.
+//  An upload pins its key before it looks for the object and keeps the pin until its reference is committed, the sweep
+//  leases the key while it counts and deletes. Both are set by scripts that check the other one, so an upload either
+//  sees the object deleted and stores it again, or the sweep sees the pin and counts the key again later
+@Component
+public class OrphanedPictures {
+    private static final Logger logger = LoggerFactory.getLogger(OrphanedPictures.class);
+
+    private static final String CANDIDATES = "picture:orphans";
+    private static final int SWEEP_BATCH = 100;
+    private static final long PIN_RETRY_MILLIS = 100;
+
+    // KEYS: pin, delete lease of one object. ARGV: pin ttl millis. 0 while the sweep is deleting the object
+    private static final RedisScript<Long> PIN = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[2]) == 1 then
+                return 0
+            end
+            redis.call('SET', KEYS[1], 1, 'PX', ARGV[1])
+            return 1
+            """, Long.class);
+
+    // KEYS: pin, delete lease of one object. ARGV: lease ttl millis. 0 while an upload holds a pin
+    private static final RedisScript<Long> LEASE = new DefaultRedisScript<>("""
+            if redis.call('EXISTS', KEYS[1]) == 1 then
+                return 0
+            end
+            redis.call('SET', KEYS[2], 1, 'PX', ARGV[1])
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final UserInfoRepository userInfoRepository;
+    private final StorageGateway storageGateway;
+    private final Duration deleteDelay;
+    private final Duration deleteLease;
+    private final Counter deleted;
+
+    public OrphanedPictures(StringRedisTemplate redisTemplate,
+                            UserInfoRepository userInfoRepository,
+                            StorageGateway storageGateway,
+                            MeterRegistry meterRegistry,
+                            @Value("${picture.orphans.delete-delay:PT5M}") Duration deleteDelay,
+                            @Value("${picture.orphans.delete-lease:PT1M}") Duration deleteLease) {
+        this.redisTemplate = redisTemplate;
+        this.userInfoRepository = userInfoRepository;
+        this.storageGateway = storageGateway;
+        this.deleteDelay = deleteDelay;
+        this.deleteLease = deleteLease;
+        this.deleted = Counter.builder("picture.orphans.deleted").register(meterRegistry);
+    }
+
+    // a lost candidate only leaves an unreferenced object behind
+    public void schedule(String objectKey) {
+        try {
+            redisTemplate.opsForZSet().add(CANDIDATES, objectKey, Instant.now().plus(deleteDelay).toEpochMilli());
+        } catch (DataAccessException e) {
+            logger.warn("Failed to schedule {} for deletion", objectKey, e);
+        }
+    }
+
+    //  keeps the sweep away from the object for `delete-delay`, the upload commits its reference well within that.
+    //  Waits out a delete that is already running, afterwards the object is gone and has to be stored again
+    public void pin(String objectKey) {
+        long deadline = System.nanoTime() + deleteLease.toNanos();
+        while (!Long.valueOf(1).equals(redisTemplate.execute(PIN, keys(objectKey), String.valueOf(deleteDelay.toMillis())))) {
+            if (System.nanoTime() - deadline > 0) {
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Picture storage is busy, please try again shortly");
+            }
+            try {
+                Thread.sleep(PIN_RETRY_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Picture upload interrupted");
+            }
+        }
+    }
+
+    //  ZREM decides which node checks a due key, so it is deleted at most once. Deletes run one at a time, so the
+    //  sweep holds a single s3 bulkhead permit, and a key whose check or delete failed is put back for a later sweep
+    @Scheduled(fixedDelayString = "${picture.orphans.sweep-interval:PT30S}")
+    public void deleteUnreferenced() {
+        Set<String> dueKeys;
+        try {
+            dueKeys = redisTemplate.opsForZSet()
+                    .rangeByScore(CANDIDATES, 0, Instant.now().toEpochMilli(), 0, SWEEP_BATCH);
+        } catch (DataAccessException e) {
+            logger.warn("Failed to read the pictures due for deletion", e);
+            return;
+        }
+        if (dueKeys == null) {
+            return;
+        }
+
+        for (String objectKey : dueKeys) {
+            Long removed;
+            try {
+                removed = redisTemplate.opsForZSet().remove(CANDIDATES, objectKey);
+            } catch (DataAccessException e) {
+                logger.warn("Failed to claim {} for deletion", objectKey, e);
+                return;
+            }
+            if (removed == null || removed == 0) {
+                continue;
+            }
+
+            try {
+                if (!deleteIfUnreferenced(objectKey)) {
+                    continue;
+                }
+                deleted.increment();
+            } catch (RuntimeException e) {
+                // the storage or the database is unavailable, the rest of the batch would fail the same way
+                logger.warn("Failed to delete {}, retrying in {}", objectKey, deleteDelay, e);
+                schedule(objectKey);
+                return;
+            }
+        }
+    }
+
+    private boolean deleteIfUnreferenced(String objectKey) {
+        List<String> keys = keys(objectKey);
+        if (!Long.valueOf(1).equals(redisTemplate.execute(LEASE, keys, String.valueOf(deleteLease.toMillis())))) {
+            logger.debug("Keeping {} for now, an upload is about to reference it", objectKey);
+            schedule(objectKey);
+            return false;
+        }
+
+        try {
+            if (userInfoRepository.countByProfilePictureKey(objectKey) > 0) {
+                logger.debug("Keeping {}, it is referenced again", objectKey);
+                return false;
+            }
+            storageGateway.delete(objectKey).join();
+            return true;
+        } finally {
+            redisTemplate.delete(keys.get(1));
+        }
+    }
+
+    // one hash tag per object, both scripts stay on one cluster slot
+    private static List<String> keys(String objectKey) {
+        return List.of("picture:{" + objectKey + "}:pin", "picture:{" + objectKey + "}:deleting");
+    }
+}
@@ -0,0 +1,200 @@
+package com.oath2.oath20.upload;
+
+import com.oath2.oath20.service.ProfileService;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.RedisSystemException;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.RedisStreamCommands.XClaimOptions;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.PendingMessage;
+import org.springframework.data.redis.connection.stream.PendingMessages;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//  consumers of the completed-upload stream; each takes one upload at a time, so `workers` bounds how many staged
+//  pictures a node downloads and resizes at once. Same restart and recovery behaviour as the email workers: pending
+//  entries first, and entries abandoned by a consumer that is gone are claimed after `reclaim-idle`
+@Component
+public class PictureProcessingWorkers {
+    private static final Logger logger = LoggerFactory.getLogger(PictureProcessingWorkers.class);
+
+    private static final String GROUP = "picture-processing";
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(2);
+    // pending entries looked at per reclaim, oldest first
+    private static final int PENDING_SCAN = 100;
+
+    private final StringRedisTemplate redisTemplate;
+    private final PictureUploads pictureUploads;
+    private final ProfileService profileService;
+    private final int workers;
+    private final String consumerName;
+    private final Duration reclaimIdle;
+    private final Duration reclaimInterval;
+    private final long maxDeliveries;
+
+    private ExecutorService workerExecutor;
+    private volatile boolean running = true;
+
+    public PictureProcessingWorkers(StringRedisTemplate redisTemplate,
+                                    PictureUploads pictureUploads,
+                                    ProfileService profileService,
+                                    @Value("${picture.upload.workers:2}") int workers,
+                                    @Value("${picture.upload.consumer-name:}") String consumerName,
+                                    @Value("${picture.upload.reclaim-idle:PT5M}") Duration reclaimIdle,
+                                    @Value("${picture.upload.reclaim-interval:PT1M}") Duration reclaimInterval,
+                                    @Value("${picture.upload.max-deliveries:3}") long maxDeliveries) {
+        this.redisTemplate = redisTemplate;
+        this.pictureUploads = pictureUploads;
+        this.profileService = profileService;
+        this.workers = workers;
+        this.consumerName = consumerName.isBlank() ? hostName() : consumerName;
+        this.reclaimIdle = reclaimIdle;
+        this.reclaimInterval = reclaimInterval;
+        this.maxDeliveries = maxDeliveries;
+    }
+
+    @PostConstruct
+    void start() {
+        createGroup();
+
+        workerExecutor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("picture-worker-", 0).factory());
+        for (int i = 0; i < workers; i++) {
+            Consumer consumer = Consumer.from(GROUP, consumerName + "-" + i);
+            workerExecutor.execute(() -> poll(consumer));
+        }
+    }
+
+    @PreDestroy
+    void stop() {
+        running = false;
+        workerExecutor.close();
+    }
+
+    private void poll(Consumer consumer) {
+        ReadOffset offset = ReadOffset.from("0");
+        boolean replayingPending = true;
+        long nextReclaimNanos = System.nanoTime();
+        while (running) {
+            try {
+                if (!replayingPending && System.nanoTime() - nextReclaimNanos >= 0) {
+                    nextReclaimNanos = System.nanoTime() + reclaimInterval.toNanos();
+                    processAbandoned(consumer);
+                    continue;
+                }
+
+                List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(consumer,
+                        StreamReadOptions.empty().count(1).block(POLL_TIMEOUT),
+                        StreamOffset.create(PictureUploads.STREAM, offset));
+
+                if (records == null || records.isEmpty()) {
+                    offset = ReadOffset.lastConsumed();
+                    replayingPending = false;
+                    continue;
+                }
+
+                MapRecord<String, Object, Object> record = records.get(0);
+                String uploadId = pictureUploads.read(record);
+                // a replayed upload still PROCESSING was interrupted by the restart
+                if (!replayingPending || !pictureUploads.failInterrupted(uploadId)) {
+                    process(uploadId);
+                }
+                pictureUploads.acknowledge(GROUP, record.getId());
+                if (replayingPending) {
+                    offset = ReadOffset.from(record.getId());
+                }
+            } catch (DataAccessException e) {
+                logger.warn("Reading {} failed", PictureUploads.STREAM, e);
+                pause();
+            }
+        }
+    }
+
+    //  an upload abandoned while PROCESSING is failed rather than processed again, its staged object may be gone;
+    //  one still QUEUED is processed, unless its entry was already delivered `max-deliveries` times
+    private void processAbandoned(Consumer consumer) {
+        PendingMessages pendingMessages = redisTemplate.opsForStream()
+                .pending(PictureUploads.STREAM, GROUP, Range.unbounded(), PENDING_SCAN);
+
+        for (PendingMessage pendingMessage : pendingMessages) {
+            if (!running) {
+                return;
+            }
+            if (pendingMessage.getElapsedTimeSinceLastDelivery().compareTo(reclaimIdle) < 0) {
+                continue;
+            }
+
+            // XCLAIM with a min idle time hands the entry to one worker only, and never takes it from a live consumer
+            List<MapRecord<String, Object, Object>> claimed = redisTemplate.opsForStream().claim(PictureUploads.STREAM, GROUP,
+                    consumer.getName(), XClaimOptions.minIdle(reclaimIdle).ids(pendingMessage.getId()));
+            if (claimed == null || claimed.isEmpty()) {
+                continue;
+            }
+
+            MapRecord<String, Object, Object> record = claimed.get(0);
+            String uploadId = pictureUploads.read(record);
+            logger.info("Claimed abandoned picture upload {}", uploadId);
+            if (!pictureUploads.failInterrupted(uploadId)) {
+                if (pendingMessage.getTotalDeliveryCount() < maxDeliveries) {
+                    process(uploadId);
+                } else {
+                    pictureUploads.failUnprocessed(uploadId);
+                }
+            }
+            pictureUploads.acknowledge(GROUP, record.getId());
+        }
+    }
+
+    private void process(String uploadId) {
+        try {
+            profileService.promoteStagedPicture(uploadId);
+        } catch (RuntimeException e) {
+            // the failure is on the upload's status, the client starts a new upload
+            logger.warn("Processing picture upload {} failed", uploadId, e);
+        }
+    }
+
+    private void pause() {
+        try {
+            Thread.sleep(POLL_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private void createGroup() {
+        try {
+            redisTemplate.execute((RedisCallback<String>) connection -> connection.streamCommands().xGroupCreate(
+                    PictureUploads.STREAM.getBytes(StandardCharsets.UTF_8), GROUP, ReadOffset.from("0"), true));
+        } catch (RedisSystemException e) {
+            // BUSYGROUP: another node or an earlier run already created it
+            logger.debug("Consumer group {} already exists", GROUP);
+        }
+    }
+
+    private static String hostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            return "picture-worker";
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package com.oath2.oath20.upload;
+
+import com.oath2.oath20.dto.PictureUploadState;
+
+// one two-phase picture upload; profilePictureKey is set once the staged object was promoted, error once it failed
+public record PictureUpload(String uploadId, String username, String stagingKey, PictureUploadState state,
+                            String profilePictureKey, String error) {
+}
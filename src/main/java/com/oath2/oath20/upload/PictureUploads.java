@@ -0,0 +1,152 @@
+package com.oath2.oath20.upload;
+
+import com.oath2.oath20.dto.PictureUploadState;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.RecordId;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+//  status of every two-phase upload in a redis hash (picture:upload:<id>, expires after `status-ttl`) and the queue
+//  of completed uploads on a redis stream, so any node's processing workers can pick them up
+@Component
+public class PictureUploads {
+
+    public static final String STREAM = "picture:uploads";
+    private static final String STATUS_PREFIX = "picture:upload:";
+    private static final String UPLOAD_ID = "uploadId";
+
+    // KEYS: status hash. ARGV: expected state, new state, ttl seconds, then field/value pairs set with the new state.
+    // 0 when the upload is gone or no longer in the expected state
+    private static final RedisScript<Long> TRANSITION = new DefaultRedisScript<>("""
+            if redis.call('HGET', KEYS[1], 'state') ~= ARGV[1] then
+                return 0
+            end
+            redis.call('HSET', KEYS[1], 'state', ARGV[2], unpack(ARGV, 4))
+            redis.call('EXPIRE', KEYS[1], ARGV[3])
+            return 1
+            """, Long.class);
+
+    private final StringRedisTemplate redisTemplate;
+    private final Duration statusTtl;
+    private final MeterRegistry meterRegistry;
+
+    public PictureUploads(StringRedisTemplate redisTemplate,
+                          MeterRegistry meterRegistry,
+                          @Value("${picture.upload.status-ttl:P1D}") Duration statusTtl) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.statusTtl = statusTtl;
+    }
+
+    public void create(String uploadId, String username, String stagingKey) {
+        save(uploadId, Map.of(
+                "username", username,
+                "stagingKey", stagingKey,
+                "state", PictureUploadState.AWAITING_UPLOAD.name()));
+    }
+
+    public Optional<PictureUpload> find(String uploadId) {
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(STATUS_PREFIX + uploadId);
+        if (fields.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(new PictureUpload(
+                uploadId,
+                (String) fields.get("username"),
+                (String) fields.get("stagingKey"),
+                PictureUploadState.valueOf((String) fields.get("state")),
+                (String) fields.get("profilePictureKey"),
+                (String) fields.get("error")));
+    }
+
+    // HSETNX on queuedAt makes completing idempotent: a repeated or concurrent call does not queue the upload twice
+    public boolean enqueue(String uploadId) {
+        Boolean first = redisTemplate.opsForHash().putIfAbsent(STATUS_PREFIX + uploadId, "queuedAt", String.valueOf(System.currentTimeMillis()));
+        if (!Boolean.TRUE.equals(first)) {
+            return false;
+        }
+
+        updateState(uploadId, PictureUploadState.QUEUED);
+        redisTemplate.opsForStream().add(STREAM, Map.of(UPLOAD_ID, uploadId));
+        count("queued");
+        return true;
+    }
+
+    public String read(MapRecord<String, Object, Object> record) {
+        return String.valueOf(record.getValue().get(UPLOAD_ID));
+    }
+
+    public void acknowledge(String group, RecordId recordId) {
+        redisTemplate.opsForStream().acknowledge(STREAM, group, recordId);
+        redisTemplate.opsForStream().delete(STREAM, recordId);
+    }
+
+    // only one worker moves an upload out of QUEUED, a replayed or claimed entry finds it taken
+    public boolean startProcessing(String uploadId) {
+        return transition(uploadId, PictureUploadState.QUEUED, PictureUploadState.PROCESSING);
+    }
+
+    // the worker that was processing the upload is gone, the client starts a new upload
+    public boolean failInterrupted(String uploadId) {
+        return fail(uploadId, PictureUploadState.PROCESSING, "Processing was interrupted, please upload again.");
+    }
+
+    // no worker managed to pick the upload up
+    public boolean failUnprocessed(String uploadId) {
+        return fail(uploadId, PictureUploadState.QUEUED, "Processing failed, please upload again.");
+    }
+
+    public void updateState(String uploadId, PictureUploadState state) {
+        save(uploadId, Map.of("state", state.name()));
+    }
+
+    public void markDone(String uploadId, String profilePictureKey) {
+        save(uploadId, Map.of("state", PictureUploadState.DONE.name(), "profilePictureKey", profilePictureKey));
+        count("done");
+    }
+
+    public void markFailed(String uploadId, String error) {
+        Map<String, String> fields = new HashMap<>();
+        fields.put("state", PictureUploadState.FAILED.name());
+        fields.put("error", String.valueOf(error));
+        save(uploadId, fields);
+        count("failed");
+    }
+
+    private boolean fail(String uploadId, PictureUploadState expected, String error) {
+        if (!transition(uploadId, expected, PictureUploadState.FAILED, "error", error)) {
+            return false;
+        }
+        count("failed");
+        return true;
+    }
+
+    private boolean transition(String uploadId, PictureUploadState expected, PictureUploadState next, String... fields) {
+        List<String> args = new ArrayList<>(List.of(expected.name(), next.name(), String.valueOf(statusTtl.toSeconds())));
+        args.addAll(List.of(fields));
+        Long result = redisTemplate.execute(TRANSITION, List.of(STATUS_PREFIX + uploadId), args.toArray());
+        return Long.valueOf(1).equals(result);
+    }
+
+    private void save(String uploadId, Map<String, String> fields) {
+        String key = STATUS_PREFIX + uploadId;
+        redisTemplate.opsForHash().putAll(key, fields);
+        redisTemplate.expire(key, statusTtl);
+    }
+
+    private void count(String event) {
+        Counter.builder("picture.upload.staged").tag("event", event).register(meterRegistry).increment();
+    }
+}
@@ -1,13 +1,47 @@
 package com.oath2.oath20;
 
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.circuitbreaker.configure.CircuitBreakerAspect;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+
+import static org.assertj.core.api.Assertions.assertThat;
 
 @SpringBootTest
 class ApplicationTests {
 
+	@Autowired
+	private ApplicationContext applicationContext;
+
+	@Autowired
+	private CircuitBreakerRegistry circuitBreakerRegistry;
+
+	@Autowired
+	private BulkheadRegistry bulkheadRegistry;
+
 	@Test
 	void contextLoads() {
 	}
 
+	// the resilience4j.* properties are bound and the @CircuitBreaker/@Bulkhead aspects are active
+	@Test
+	void registersTheConfiguredBreakersAndBulkheads() {
+		assertThat(applicationContext.getBeansOfType(CircuitBreakerAspect.class)).isNotEmpty();
+
+		assertThat(circuitBreakerRegistry.getAllCircuitBreakers())
+				.extracting(CircuitBreaker::getName)
+				.contains("s3", "smtp");
+		assertThat(circuitBreakerRegistry.circuitBreaker("s3").getCircuitBreakerConfig()
+				.getIgnoreExceptionPredicate().test(BulkheadFullException.createBulkheadFullException(bulkheadRegistry.bulkhead("s3"))))
+				.isTrue();
+		assertThat(circuitBreakerRegistry.circuitBreaker("smtp").getCircuitBreakerConfig().getMinimumNumberOfCalls())
+				.isEqualTo(3);
+		assertThat(bulkheadRegistry.bulkhead("s3").getBulkheadConfig().getMaxConcurrentCalls()).isEqualTo(10);
+	}
+
 }
@@ -0,0 +1,127 @@
+package com.oath2.oath20.config.concurrencyLimitConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.method.HandlerMethod;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+//  64 clients in a closed loop against a downstream that runs 8 requests at a time, queues 8 more and answers 503
+//  beyond that, the way the hashing queue does. Without the interceptor almost every request reaches the downstream
+//  only to be turned away; with it the limit settles near the downstream's 16 places and the excess is shed up front
+class ConcurrencyLimitLoadTests {
+
+    private static final int CLIENTS = 64;
+    private static final int DOWNSTREAM_SLOTS = 8;
+    private static final int DOWNSTREAM_QUEUE = 8;
+    private static final Duration SERVICE_TIME = Duration.ofMillis(5);
+    private static final Duration RUN_TIME = Duration.ofSeconds(2);
+
+    private final Semaphore running = new Semaphore(DOWNSTREAM_SLOTS);
+    private final Semaphore admitted = new Semaphore(DOWNSTREAM_SLOTS + DOWNSTREAM_QUEUE);
+
+    private record LoadResult(long served, long downstreamRejected, long shed) {
+
+        double downstreamRejectedShare() {
+            return (double) downstreamRejected / (served + downstreamRejected);
+        }
+    }
+
+    @Test
+    void shedsLoadBeforeItReachesAnOverloadedDownstream() throws Exception {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ConcurrencyLimitInterceptor interceptor = new ConcurrencyLimitInterceptor(meterRegistry, 20, 2, 200, 2.0, 0.2);
+
+        LoadResult unlimited = run(null);
+        LoadResult limited = run(interceptor);
+
+        assertThat(unlimited.downstreamRejectedShare()).isGreaterThan(0.8);
+        assertThat(limited.downstreamRejectedShare()).isLessThan(unlimited.downstreamRejectedShare() / 2);
+        assertThat(limited.shed()).isPositive();
+        // shedding at the edge must not cost throughput
+        assertThat(limited.served()).isGreaterThan(unlimited.served() / 2);
+
+        double limit = meterRegistry.get("concurrency.limit").tag("endpoint", "sign-in").gauge().value();
+        assertThat(limit).isBetween(2.0, 2.0 * (DOWNSTREAM_SLOTS + DOWNSTREAM_QUEUE));
+        assertThat(meterRegistry.get("concurrency.rejected").tag("endpoint", "sign-in").counter().count())
+                .isEqualTo((double) limited.shed());
+    }
+
+    private LoadResult run(ConcurrencyLimitInterceptor interceptor) throws Exception {
+        HandlerMethod handler = new HandlerMethod(new LimitedController(), LimitedController.class.getDeclaredMethod("signIn"));
+        AtomicLong served = new AtomicLong();
+        AtomicLong downstreamRejected = new AtomicLong();
+        AtomicLong shed = new AtomicLong();
+
+        long deadline = System.nanoTime() + RUN_TIME.toNanos();
+        ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+        for (int i = 0; i < CLIENTS; i++) {
+            clients.execute(() -> {
+                try {
+                    while (System.nanoTime() < deadline) {
+                        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/sign-in");
+                        MockHttpServletResponse response = new MockHttpServletResponse();
+                        if (interceptor != null && !interceptor.preHandle(request, response, handler)) {
+                            shed.incrementAndGet();
+                            Thread.sleep(1);
+                            continue;
+                        }
+
+                        if (callDownstream()) {
+                            served.incrementAndGet();
+                        } else {
+                            downstreamRejected.incrementAndGet();
+                            response.setStatus(HttpStatus.SERVICE_UNAVAILABLE.value());
+                        }
+                        if (interceptor != null) {
+                            interceptor.afterCompletion(request, response, handler, null);
+                        }
+                        if (response.getStatus() == HttpStatus.SERVICE_UNAVAILABLE.value()) {
+                            Thread.sleep(1);
+                        }
+                    }
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+            });
+        }
+        clients.shutdown();
+        assertThat(clients.awaitTermination(RUN_TIME.toSeconds() + 10, TimeUnit.SECONDS)).isTrue();
+
+        return new LoadResult(served.get(), downstreamRejected.get(), shed.get());
+    }
+
+    private boolean callDownstream() throws InterruptedException {
+        if (!admitted.tryAcquire()) {
+            return false;
+        }
+        try {
+            running.acquire();
+            try {
+                Thread.sleep(SERVICE_TIME);
+            } finally {
+                running.release();
+            }
+            return true;
+        } finally {
+            admitted.release();
+        }
+    }
+
+    static class LimitedController {
+
+        @ConcurrencyLimited("sign-in")
+        void signIn() {
+        }
+    }
+}
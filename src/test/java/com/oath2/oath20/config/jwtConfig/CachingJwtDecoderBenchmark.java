@@ -0,0 +1,72 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+//  decoding one access token the way the filters did before (a NimbusJwtDecoder built per request), with a shared
+//  decoder, and through the verified-token cache
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CachingJwtDecoderBenchmark {
+
+    private RSAPublicKey publicKey;
+    private JwtDecoder sharedDecoder;
+    private JwtDecoder cachingDecoder;
+    private String token;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = JwtAlgorithm.RS256.generateKeyPair();
+        publicKey = (RSAPublicKey) keyPair.getPublic();
+        sharedDecoder = NimbusJwtDecoder.withPublicKey(publicKey).build();
+        cachingDecoder = new CachingJwtDecoder(sharedDecoder, 10_000, new SimpleMeterRegistry());
+
+        long now = Instant.now().getEpochSecond();
+        token = JwtSigningKey.of(JwtAlgorithm.RS256, null, keyPair.getPrivate())
+                .sign("{\"iss\":\"uttkarsh\",\"sub\":\"user@example.com\",\"scope\":\"READ WRITE\",\"iat\":" + now
+                        + ",\"exp\":" + (now + 3600) + "}");
+    }
+
+    @Benchmark
+    public Jwt decoderPerRequest() {
+        return NimbusJwtDecoder.withPublicKey(publicKey).build().decode(token);
+    }
+
+    @Benchmark
+    public Jwt sharedDecoder() {
+        return sharedDecoder.decode(token);
+    }
+
+    @Benchmark
+    public Jwt cachingDecoder() {
+        return cachingDecoder.decode(token);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(CachingJwtDecoderBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,100 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.web.authentication.BearerTokenAuthenticationFilter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// the access token filter and the resource server filter of the /api chains, in the order SecurityConfig adds them
+class RequestJwtTests {
+
+    private static final String TOKEN = "header.payload.signature";
+
+    private final AtomicInteger decodes = new AtomicInteger();
+    private final JwtDecoder countingDecoder = token -> {
+        decodes.incrementAndGet();
+        return Jwt.withTokenValue(token)
+                .header("alg", "RS256")
+                .subject("user@example.com")
+                .claim("scope", "READ")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(60))
+                .build();
+    };
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        UserDetails user = User.withUsername("user@example.com").password("").authorities("READ").build();
+        JwtTokenUtils jwtTokenUtils = mock(JwtTokenUtils.class);
+        when(jwtTokenUtils.getUserName(any())).thenReturn(user.getUsername());
+        when(jwtTokenUtils.userDetails(user.getUsername())).thenReturn(user);
+        when(jwtTokenUtils.isTokenValid(any(), any())).thenReturn(true);
+
+        BearerTokenAuthenticationFilter resourceServerFilter = new BearerTokenAuthenticationFilter(
+                new RequestJwtAuthenticationManagerResolver(countingDecoder, new JwtAuthenticationConverter()));
+
+        mockMvc = MockMvcBuilders.standaloneSetup(new WhoAmIController())
+                .addFilters(new JwtAccessTokenFilter(countingDecoder, jwtTokenUtils), resourceServerFilter)
+                .build();
+    }
+
+    @AfterEach
+    void clearContext() {
+        SecurityContextHolder.clearContext();
+    }
+
+    @Test
+    void decodesTheBearerTokenOncePerRequest() throws Exception {
+        mockMvc.perform(get("/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN))
+                .andExpect(status().isOk())
+                .andExpect(content().string("user@example.com"));
+
+        assertThat(decodes).hasValue(1);
+    }
+
+    @Test
+    void decodesAgainOnTheNextRequest() throws Exception {
+        for (int request = 0; request < 2; request++) {
+            SecurityContextHolder.clearContext();
+            mockMvc.perform(get("/whoami").header(HttpHeaders.AUTHORIZATION, "Bearer " + TOKEN))
+                    .andExpect(status().isOk());
+        }
+
+        assertThat(decodes).hasValue(2);
+    }
+
+    @RestController
+    static class WhoAmIController {
+
+        @GetMapping("/whoami")
+        String whoAmI() {
+            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+            return authentication.getName();
+        }
+    }
+}
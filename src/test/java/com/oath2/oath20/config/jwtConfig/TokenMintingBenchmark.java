@@ -0,0 +1,87 @@
+package com.oath2.oath20.config.jwtConfig;
+
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+
+import java.security.KeyPair;
+import java.security.interfaces.RSAPrivateKey;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.TimeUnit;
+
+//  minting one access token through NimbusJwtEncoder and JwtClaimsSet, as JwtTokenGenerator did before, and through
+//  a prepared JwtSigningKey with the claims JSON written directly. Both are dominated by the RSA operation, the
+//  difference is the work around it
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenMintingBenchmark {
+
+    private static final String SUBJECT = "user@example.com";
+    private static final String SCOPE = "READ WRITE";
+
+    private JwtEncoder nimbusEncoder;
+    private JwtSigningKey signingKey;
+
+    @Setup
+    public void setUp() {
+        KeyPair keyPair = JwtAlgorithm.RS256.generateKeyPair();
+        JWK jwk = new RSAKey.Builder((RSAPublicKey) keyPair.getPublic())
+                .privateKey((RSAPrivateKey) keyPair.getPrivate())
+                .build();
+        nimbusEncoder = new NimbusJwtEncoder(new ImmutableJWKSet<>(new JWKSet(jwk)));
+        signingKey = JwtSigningKey.of(JwtAlgorithm.RS256, null, keyPair.getPrivate());
+    }
+
+    @Benchmark
+    public String nimbusEncoder() {
+        JwtClaimsSet claims = JwtClaimsSet.builder()
+                .issuer("uttkarsh")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plus(1, ChronoUnit.MINUTES))
+                .subject(SUBJECT)
+                .claim("scope", SCOPE)
+                .build();
+        return nimbusEncoder.encode(JwtEncoderParameters.from(claims)).getTokenValue();
+    }
+
+    @Benchmark
+    public String signingKey() {
+        Instant issuedAt = Instant.now();
+        String claims = new StringBuilder(160)
+                .append("{\"iss\":\"uttkarsh\",\"sub\":\"").append(SUBJECT)
+                .append("\",\"scope\":\"").append(SCOPE)
+                .append("\",\"iat\":").append(issuedAt.getEpochSecond())
+                .append(",\"exp\":").append(issuedAt.plus(1, ChronoUnit.MINUTES).getEpochSecond())
+                .append('}')
+                .toString();
+        return signingKey.sign(claims);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TokenMintingBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,122 @@
+package com.oath2.oath20.controller;
+
+import com.oath2.oath20.config.SecurityConfig;
+import com.oath2.oath20.config.authorizationConfig.AuthorizationModel;
+import com.oath2.oath20.config.concurrencyLimitConfig.ConcurrencyLimitInterceptor;
+import com.oath2.oath20.config.jwtConfig.JwtTokenUtils;
+import com.oath2.oath20.config.rateLimitConfig.RateLimitInterceptor;
+import com.oath2.oath20.config.userConfig.UserInfoManagerConfig;
+import com.oath2.oath20.dto.AuthResponseDto;
+import com.oath2.oath20.entity.RefreshTokenEntity;
+import com.oath2.oath20.entity.UserInfoEntity;
+import com.oath2.oath20.service.AuthService;
+import com.oath2.oath20.service.LogoutHandlerService;
+import com.oath2.oath20.service.OtpService;
+import com.oath2.oath20.service.PasswordHashingService;
+import com.oath2.oath20.service.RefreshTokenService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.HttpHeaders;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.time.Instant;
+import java.util.Optional;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+// the refresh-token chain of SecurityConfig with the real AuthorizationModel converter, everything behind it mocked
+@WebMvcTest(AuthController.class)
+@Import({SecurityConfig.class, AuthorizationModel.class})
+class RefreshTokenEndpointTests {
+
+    private static final String REFRESH_TOKEN = "header.payload.signature";
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @MockBean
+    private JwtDecoder jwtDecoder;
+    @MockBean
+    private JwtTokenUtils jwtTokenUtils;
+    @MockBean
+    private RefreshTokenService refreshTokenService;
+    @MockBean
+    private LogoutHandlerService logoutHandlerService;
+    @MockBean
+    private AuthService authService;
+    @MockBean
+    private PasswordHashingService passwordHashingService;
+    @MockBean
+    private UserInfoManagerConfig userInfoManagerConfig;
+    @MockBean
+    private OtpService otpService;
+    @MockBean
+    private ConcurrencyLimitInterceptor concurrencyLimitInterceptor;
+    @MockBean
+    private RateLimitInterceptor rateLimitInterceptor;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        when(concurrencyLimitInterceptor.preHandle(any(), any(), any())).thenReturn(true);
+        when(rateLimitInterceptor.preHandle(any(), any(), any())).thenReturn(true);
+
+        UserInfoEntity user = new UserInfoEntity();
+        user.setUsername("user");
+        user.setEmailId("user@example.com");
+        RefreshTokenEntity refreshTokenEntity = RefreshTokenEntity.builder()
+                .refreshToken(REFRESH_TOKEN)
+                .user(user)
+                .build();
+        UserDetails userDetails = User.withUsername("user@example.com").password("").authorities("ROLE_USER").build();
+
+        when(jwtDecoder.decode(REFRESH_TOKEN)).thenReturn(Jwt.withTokenValue(REFRESH_TOKEN)
+                .header("alg", "RS256")
+                .subject("user@example.com")
+                .claim("scope", AuthorizationModel.REFRESH_TOKEN_SCOPE)
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(60))
+                .build());
+        when(jwtTokenUtils.getUserName(any())).thenReturn("user@example.com");
+        when(jwtTokenUtils.userDetails(user)).thenReturn(userDetails);
+        when(jwtTokenUtils.isTokenValid(any(), eq(userDetails))).thenReturn(true);
+        when(refreshTokenService.findActiveRefreshToken(REFRESH_TOKEN)).thenReturn(Optional.of(refreshTokenEntity));
+        when(authService.getAccessTokenUsingRefreshToken(any(), eq(refreshTokenEntity))).thenReturn(AuthResponseDto.builder()
+                .accessToken("access-token")
+                .username("user")
+                .build());
+    }
+
+    @Test
+    void refreshesWithAJwtRefreshToken() throws Exception {
+        mockMvc.perform(post("/refresh-token").header(HttpHeaders.AUTHORIZATION, "Bearer " + REFRESH_TOKEN))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.access_token").value("access-token"));
+    }
+
+    @Test
+    void rejectsAnAccessTokenOnTheRefreshEndpoint() throws Exception {
+        when(jwtDecoder.decode(REFRESH_TOKEN)).thenReturn(Jwt.withTokenValue(REFRESH_TOKEN)
+                .header("alg", "RS256")
+                .subject("user@example.com")
+                .claim("scope", "READ")
+                .issuedAt(Instant.now())
+                .expiresAt(Instant.now().plusSeconds(60))
+                .build());
+
+        mockMvc.perform(post("/refresh-token").header(HttpHeaders.AUTHORIZATION, "Bearer " + REFRESH_TOKEN))
+                .andExpect(status().isForbidden());
+    }
+}
@@ -0,0 +1,183 @@
+package com.oath2.oath20.mail;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.icegreen.greenmail.junit5.GreenMailExtension;
+import com.icegreen.greenmail.util.ServerSetupTest;
+import com.oath2.oath20.service.EmailService;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.mail.internet.MimeMessage;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.connection.stream.Consumer;
+import org.springframework.data.redis.connection.stream.MapRecord;
+import org.springframework.data.redis.connection.stream.ReadOffset;
+import org.springframework.data.redis.connection.stream.StreamOffset;
+import org.springframework.data.redis.connection.stream.StreamReadOptions;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// the outbox, the workers and the pooled transport wired by hand against a real redis stream and an in-process SMTP server
+@Testcontainers(disabledWithoutDocker = true)
+class EmailDeliveryTests {
+
+    private static final String GROUP = "mail-delivery";
+    private static final String DEAD_LETTERS = "mail:outbox:dead";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @Container
+    private static final GenericContainer<?> redis = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    @RegisterExtension
+    static final GreenMailExtension greenMail = new GreenMailExtension(ServerSetupTest.SMTP);
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private StringRedisTemplate redisTemplate;
+    private EmailOutbox emailOutbox;
+    private EmailService emailService;
+    private EmailDeliveryWorkers workers;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(redis.getHost(), redis.getFirstMappedPort());
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        ObjectMapper objectMapper = new ObjectMapper().registerModule(new JavaTimeModule());
+        OutboxCipher outboxCipher = new OutboxCipher(Base64.getEncoder().encodeToString(new byte[32]));
+        emailOutbox = new EmailOutbox(redisTemplate, objectMapper, outboxCipher, meterRegistry,
+                6, 100, Duration.ofSeconds(10), Duration.ofMinutes(10));
+
+        JavaMailSenderImpl mailSender = new JavaMailSenderImpl();
+        mailSender.setHost("localhost");
+        mailSender.setPort(greenMail.getSmtp().getPort());
+        PooledSmtpTransport smtpTransport = new PooledSmtpTransport(mailSender, meterRegistry,
+                2, Duration.ofSeconds(5), Duration.ofSeconds(60));
+        emailService = new EmailService(smtpTransport, emailOutbox);
+        ReflectionTestUtils.setField(emailService, "fromEmail", "no-reply@example.com");
+    }
+
+    @AfterEach
+    void stopWorkers() {
+        if (workers != null) {
+            workers.stop();
+        }
+    }
+
+    @Test
+    void deliversAnOtpEmail() throws Exception {
+        startWorkers(Duration.ofMinutes(5), 5);
+
+        emailService.sendOtpEmail("user@example.com", "123456", Duration.ofMinutes(5));
+
+        assertThat(greenMail.waitForIncomingEmail(TIMEOUT.toMillis(), 1)).isTrue();
+        MimeMessage message = greenMail.getReceivedMessages()[0];
+        assertThat(message.getAllRecipients()[0].toString()).isEqualTo("user@example.com");
+        assertThat(message.getSubject()).isEqualTo("Your OTP for Account Verification");
+        assertThat(message.getContent().toString()).contains("123456");
+        // acknowledged and removed from the stream
+        awaitTrue(() -> redisTemplate.opsForStream().size(EmailOutbox.STREAM) == 0);
+    }
+
+    @Test
+    void doesNotSendAnExpiredEmail() {
+        startWorkers(Duration.ofMinutes(5), 5);
+
+        emailOutbox.enqueue(OutboundEmail.of("late@example.com", "Expired", "too late", Instant.now().minusSeconds(1)));
+        emailService.sendOtpEmail("user@example.com", "123456", Duration.ofMinutes(5));
+
+        assertThat(greenMail.waitForIncomingEmail(TIMEOUT.toMillis(), 1)).isTrue();
+        awaitTrue(() -> redisTemplate.opsForStream().size(EmailOutbox.STREAM) == 0);
+        assertThat(greenMail.getReceivedMessages()).hasSize(1);
+    }
+
+    @Test
+    void deliversEntriesAbandonedByAConsumerThatIsGone() {
+        emailService.sendOtpEmail("user@example.com", "123456", Duration.ofMinutes(5));
+        readWithoutAcknowledging();
+
+        startWorkers(Duration.ofMillis(200), 5);
+
+        assertThat(greenMail.waitForIncomingEmail(TIMEOUT.toMillis(), 1)).isTrue();
+        awaitTrue(() -> redisTemplate.opsForStream().pending(EmailOutbox.STREAM, GROUP).getTotalPendingMessages() == 0);
+    }
+
+    @Test
+    void deadLettersEntriesDeliveredTooOften() {
+        emailService.sendOtpEmail("user@example.com", "123456", Duration.ofMinutes(5));
+        readWithoutAcknowledging();
+
+        // the read by the consumer that is gone already used up the only delivery
+        startWorkers(Duration.ofMillis(200), 1);
+
+        awaitTrue(() -> redisTemplate.opsForStream().size(DEAD_LETTERS) == 1);
+        awaitTrue(() -> redisTemplate.opsForStream().pending(EmailOutbox.STREAM, GROUP).getTotalPendingMessages() == 0);
+        assertThat(greenMail.getReceivedMessages()).isEmpty();
+    }
+
+    private void startWorkers(Duration reclaimIdle, long maxDeliveries) {
+        workers = new EmailDeliveryWorkers(redisTemplate, emailOutbox, emailService, new SimpleMeterRegistry(),
+                CircuitBreakerRegistry.ofDefaults(), 1, 10, "test-host", reclaimIdle, Duration.ofMillis(200), maxDeliveries);
+        workers.start();
+    }
+
+    // a node that read the entry and was replaced before it acknowledged it
+    private void readWithoutAcknowledging() {
+        redisTemplate.opsForStream().createGroup(EmailOutbox.STREAM, ReadOffset.from("0"), GROUP);
+        List<MapRecord<String, Object, Object>> records = redisTemplate.opsForStream().read(
+                Consumer.from(GROUP, "replaced-host-0"),
+                StreamReadOptions.empty().count(10),
+                StreamOffset.create(EmailOutbox.STREAM, ReadOffset.lastConsumed()));
+        assertThat(records).hasSize(1);
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            assertThat(System.nanoTime() - deadline).as("condition not met within %s", TIMEOUT).isNegative();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.oath2.oath20.repository;
+
+import com.oath2.oath20.entity.RefreshTokenEntity;
+import com.oath2.oath20.entity.UserInfoEntity;
+import jakarta.persistence.EntityManagerFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.autoconfigure.orm.jpa.TestEntityManager;
+
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+// a refresh reads the token and its user together, JwtRefreshTokenFilter builds the UserDetails from that row
+@DataJpaTest(properties = "spring.jpa.properties.hibernate.generate_statistics=true")
+class RefreshTokenRepositoryTests {
+
+    @Autowired
+    private TestEntityManager entityManager;
+
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    @Autowired
+    private RefreshTokenRepository refreshTokenRepository;
+
+    private Statistics statistics;
+
+    @BeforeEach
+    void setUp() {
+        UserInfoEntity user = new UserInfoEntity();
+        user.setEmailId("user@example.com");
+        user.setPassword("{bcrypt}hash");
+        user.setRoles("ROLE_USER");
+        entityManager.persist(user);
+
+        entityManager.persist(RefreshTokenEntity.builder()
+                .tokenHash("a".repeat(64))
+                .expiresAt(Instant.now().plusSeconds(60))
+                .user(user)
+                .build());
+        entityManager.persist(RefreshTokenEntity.builder()
+                .refreshToken("header.payload.signature")
+                .user(user)
+                .build());
+        entityManager.flush();
+        entityManager.clear();
+
+        statistics = entityManagerFactory.unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+    }
+
+    @Test
+    void findByTokenHashLoadsTheUserInTheSameSelect() {
+        RefreshTokenEntity token = refreshTokenRepository.findByTokenHash("a".repeat(64)).orElseThrow();
+
+        assertThat(Hibernate.isInitialized(token.getUser())).isTrue();
+        assertThat(token.getUser().getEmailId()).isEqualTo("user@example.com");
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+
+    @Test
+    void findByRefreshTokenLoadsTheUserInTheSameSelect() {
+        RefreshTokenEntity token = refreshTokenRepository.findByRefreshToken("header.payload.signature").orElseThrow();
+
+        assertThat(Hibernate.isInitialized(token.getUser())).isTrue();
+        assertThat(token.getUser().getEmailId()).isEqualTo("user@example.com");
+        assertThat(statistics.getPrepareStatementCount()).isEqualTo(1);
+    }
+}
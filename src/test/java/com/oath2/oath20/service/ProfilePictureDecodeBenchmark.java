@@ -0,0 +1,88 @@
+package com.oath2.oath20.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+//  turning one camera-sized JPEG into the 800x600 profile picture: a full decode then a scale, as S3Service did before,
+//  and ImageService's subsampled decode. The main method adds the GC profiler, its gc.alloc.rate.norm is the bytes
+//  allocated per picture and shows the bound on the decoded raster
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProfilePictureDecodeBenchmark {
+
+    @Param({"1600x1200", "6000x4000"})
+    private String resolution;
+
+    private byte[] upload;
+    private ImageService imageService;
+
+    @Setup
+    public void setUp() throws IOException {
+        String[] size = resolution.split("x");
+        BufferedImage image = new BufferedImage(Integer.parseInt(size[0]), Integer.parseInt(size[1]), BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, image.getWidth(), image.getHeight(), Color.BLUE));
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", output);
+        upload = output.toByteArray();
+
+        imageService = new ImageService(new SimpleMeterRegistry(), 800, 600, 0.85f, 50L * 1024 * 1024, 40_000_000);
+    }
+
+    @Benchmark
+    public byte[] fullDecodeThenScale() throws IOException {
+        BufferedImage original = ImageIO.read(new ByteArrayInputStream(upload));
+        BufferedImage scaled = new BufferedImage(800, 600, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = scaled.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        graphics.drawImage(original, 0, 0, 800, 600, null);
+        graphics.dispose();
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(scaled, "jpg", output);
+        return output.toByteArray();
+    }
+
+    @Benchmark
+    public byte[] subsampledDecode() throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        imageService.writeProfilePicture(() -> new ByteArrayInputStream(upload), output);
+        return output.toByteArray();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ProfilePictureDecodeBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
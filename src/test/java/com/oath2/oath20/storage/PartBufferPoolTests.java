@@ -0,0 +1,79 @@
+package com.oath2.oath20.storage;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PartBufferPoolTests {
+
+    private final PartBufferPool pool = new PartBufferPool(16, 2);
+
+    @Test
+    void allocatesUpToTheLimit() throws Exception {
+        byte[] first = pool.acquire();
+        byte[] second = pool.acquire();
+
+        assertThat(first).hasSize(16).isNotSameAs(second);
+        assertThat(second).hasSize(16);
+    }
+
+    @Test
+    void reusesAReleasedBuffer() throws Exception {
+        byte[] buffer = pool.acquire();
+        pool.release(buffer);
+
+        assertThat(pool.acquire()).isSameAs(buffer);
+    }
+
+    @Test
+    void blocksAWriterUntilABufferIsReleased() throws Exception {
+        byte[] first = pool.acquire();
+        pool.acquire();
+
+        CompletableFuture<byte[]> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return pool.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertThatThrownBy(() -> waiting.get(200, TimeUnit.MILLISECONDS)).isInstanceOf(TimeoutException.class);
+
+        pool.release(first);
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isSameAs(first);
+    }
+
+    @Test
+    void aBlockedWriterCanBeInterrupted() throws Exception {
+        pool.acquire();
+        pool.acquire();
+
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            started.countDown();
+            try {
+                pool.acquire();
+            } catch (InterruptedException e) {
+                failure.set(e);
+            }
+        });
+        writer.start();
+        started.await();
+        Thread.sleep(100);
+
+        writer.interrupt();
+        writer.join(5_000);
+
+        assertThat(writer.isAlive()).isFalse();
+        assertThat(failure.get()).isInstanceOf(InterruptedException.class);
+    }
+}
@@ -0,0 +1,145 @@
+package com.oath2.oath20.storage;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.containers.localstack.LocalStackContainer.Service;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.HeadObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+// streams objects to a LocalStack S3; 5 MiB is the smallest part S3 accepts for every part but the last
+@Testcontainers(disabledWithoutDocker = true)
+class S3MultipartOutputStreamTests {
+
+    private static final String BUCKET = "uploads";
+    private static final int PART_SIZE = 5 * 1024 * 1024;
+
+    @Container
+    private static final LocalStackContainer localStack = new LocalStackContainer(DockerImageName.parse("localstack/localstack:3.4"))
+            .withServices(Service.S3);
+
+    private static S3AsyncClient s3Client;
+
+    private final PartBufferPool bufferPool = new PartBufferPool(PART_SIZE, 2);
+    private final String objectKey = "pictures/" + UUID.randomUUID();
+
+    @BeforeAll
+    static void createBucket() {
+        s3Client = S3AsyncClient.builder()
+                .endpointOverride(localStack.getEndpoint())
+                .region(Region.of(localStack.getRegion()))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(localStack.getAccessKey(), localStack.getSecretKey())))
+                .forcePathStyle(true)
+                .build();
+        s3Client.createBucket(request -> request.bucket(BUCKET)).join();
+    }
+
+    @AfterAll
+    static void closeClient() {
+        s3Client.close();
+    }
+
+    @Test
+    void storesAnObjectOfSeveralParts() throws Exception {
+        // three parts through a pool of two buffers, the third write waits for the first part to be sent
+        byte[] content = randomBytes(2 * PART_SIZE + 1234);
+
+        S3MultipartOutputStream outputStream = newOutputStream();
+        for (int offset = 0; offset < content.length; offset += 64 * 1024) {
+            outputStream.write(content, offset, Math.min(64 * 1024, content.length - offset));
+        }
+        outputStream.complete().get(60, TimeUnit.SECONDS);
+
+        assertThat(read(objectKey)).isEqualTo(content);
+        assertThat(head(objectKey).contentType()).isEqualTo("image/jpeg");
+        assertBuffersReturned();
+    }
+
+    @Test
+    void storesASmallObjectWithOnePut() throws Exception {
+        byte[] content = randomBytes(1024);
+
+        S3MultipartOutputStream outputStream = newOutputStream();
+        outputStream.write(content);
+        outputStream.close();
+
+        assertThat(read(objectKey)).isEqualTo(content);
+        assertThat(listMultipartUploads()).isZero();
+        assertBuffersReturned();
+    }
+
+    @Test
+    void abortLeavesNoObjectAndNoUpload() throws Exception {
+        S3MultipartOutputStream outputStream = newOutputStream();
+        outputStream.write(randomBytes(PART_SIZE + 10));
+        outputStream.abort();
+
+        // the abort waits for the part in flight and runs in the background
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (listMultipartUploads() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(100);
+        }
+        assertThat(listMultipartUploads()).isZero();
+        assertThatThrownBy(() -> head(objectKey)).hasCauseInstanceOf(NoSuchKeyException.class);
+        assertThatThrownBy(() -> outputStream.write(1)).hasMessage("Stream closed");
+        assertBuffersReturned();
+    }
+
+    private S3MultipartOutputStream newOutputStream() {
+        return new S3MultipartOutputStream(s3Client, BUCKET, objectKey, "image/jpeg", bufferPool);
+    }
+
+    // every buffer is back once both can be taken without waiting
+    private void assertBuffersReturned() throws Exception {
+        CompletableFuture<Void> acquired = CompletableFuture.runAsync(() -> {
+            try {
+                bufferPool.acquire();
+                bufferPool.acquire();
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        acquired.get(5, TimeUnit.SECONDS);
+    }
+
+    private static byte[] read(String key) {
+        return s3Client.getObject(request -> request.bucket(BUCKET).key(key), AsyncResponseTransformer.toBytes())
+                .join()
+                .asByteArray();
+    }
+
+    private static HeadObjectResponse head(String key) {
+        return s3Client.headObject(request -> request.bucket(BUCKET).key(key)).join();
+    }
+
+    private int listMultipartUploads() {
+        return s3Client.listMultipartUploads(request -> request.bucket(BUCKET).prefix(objectKey))
+                .join()
+                .uploads()
+                .size();
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        new Random(length).nextBytes(bytes);
+        return bytes;
+    }
+}
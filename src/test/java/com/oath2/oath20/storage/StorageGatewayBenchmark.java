@@ -0,0 +1,132 @@
+package com.oath2.oath20.storage;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.testcontainers.containers.localstack.LocalStackContainer;
+import org.testcontainers.containers.localstack.LocalStackContainer.Service;
+import org.testcontainers.utility.DockerImageName;
+import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.core.sync.RequestBody;
+import software.amazon.awssdk.regions.Region;
+import software.amazon.awssdk.services.s3.S3Client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+//  bursts of 64 concurrent HEADs and 64 KB puts against a LocalStack S3 (needs docker): the blocking client on a pool
+//  of 16 threads, the way uploads were handed off before, and S3StorageGateway on the async client. Against a local
+//  stand-in the latency is small, so the gap is mostly the threads the blocking client keeps parked
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class StorageGatewayBenchmark {
+
+    private static final String BUCKET = "uploads";
+    private static final String KEY = "profile-pictures/benchmark.jpg";
+    private static final int BURST = 64;
+
+    private final byte[] content = new byte[64 * 1024];
+
+    private LocalStackContainer localStack;
+    private S3Client blockingClient;
+    private ExecutorService blockingPool;
+    private S3StorageGateway storageGateway;
+
+    @Setup
+    public void setUp() {
+        localStack = new LocalStackContainer(DockerImageName.parse("localstack/localstack:3.4")).withServices(Service.S3);
+        localStack.start();
+
+        blockingClient = S3Client.builder()
+                .endpointOverride(localStack.getEndpoint())
+                .region(Region.of(localStack.getRegion()))
+                .credentialsProvider(StaticCredentialsProvider.create(
+                        AwsBasicCredentials.create(localStack.getAccessKey(), localStack.getSecretKey())))
+                .forcePathStyle(true)
+                .build();
+        blockingClient.createBucket(request -> request.bucket(BUCKET));
+        blockingClient.putObject(request -> request.bucket(BUCKET).key(KEY), RequestBody.fromBytes(content));
+        blockingPool = Executors.newFixedThreadPool(16);
+
+        storageGateway = new S3StorageGateway(BUCKET, localStack.getRegion(), localStack.getAccessKey(),
+                localStack.getSecretKey(), 2000, 10000, 64, localStack.getEndpoint().toString(), 5 * 1024 * 1024, 8);
+    }
+
+    @TearDown
+    public void tearDown() {
+        storageGateway.shutdown();
+        blockingPool.shutdownNow();
+        blockingClient.close();
+        localStack.stop();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void blockingHead() throws Exception {
+        runOnBlockingPool(() -> blockingClient.headObject(request -> request.bucket(BUCKET).key(KEY)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void gatewayHead() {
+        List<CompletableFuture<?>> heads = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            heads.add(storageGateway.head(KEY));
+        }
+        CompletableFuture.allOf(heads.toArray(CompletableFuture[]::new)).join();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void blockingPut() throws Exception {
+        runOnBlockingPool(() -> blockingClient.putObject(request -> request.bucket(BUCKET).key(KEY).contentType("image/jpeg"),
+                RequestBody.fromBytes(content)));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public void gatewayPut() {
+        List<CompletableFuture<?>> puts = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            puts.add(storageGateway.put(KEY, "image/jpeg", output -> output.write(content)));
+        }
+        CompletableFuture.allOf(puts.toArray(CompletableFuture[]::new)).join();
+    }
+
+    private void runOnBlockingPool(Callable<?> call) throws Exception {
+        List<Callable<Object>> calls = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            calls.add(call::call);
+        }
+        for (Future<Object> result : blockingPool.invokeAll(calls)) {
+            result.get();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(StorageGatewayBenchmark.class.getSimpleName()).build()).run();
+    }
+}
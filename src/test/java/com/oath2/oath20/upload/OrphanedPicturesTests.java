@@ -0,0 +1,144 @@
+package com.oath2.oath20.upload;
+
+import com.oath2.oath20.repository.UserInfoRepository;
+import com.oath2.oath20.storage.StorageGateway;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import org.testcontainers.utility.DockerImageName;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+// the sweep and an upload of the same picture interleaved on a real redis, the database and the storage are mocked
+@Testcontainers(disabledWithoutDocker = true)
+class OrphanedPicturesTests {
+
+    private static final String KEY = "profile-pictures/abc.jpg";
+    private static final String CANDIDATES = "picture:orphans";
+
+    @Container
+    private static final GenericContainer<?> redis = new GenericContainer<>(DockerImageName.parse("redis:7-alpine"))
+            .withExposedPorts(6379);
+
+    private static LettuceConnectionFactory connectionFactory;
+
+    private final UserInfoRepository userInfoRepository = mock(UserInfoRepository.class);
+    private final StorageGateway storageGateway = mock(StorageGateway.class);
+    private StringRedisTemplate redisTemplate;
+    private OrphanedPictures orphanedPictures;
+
+    @BeforeAll
+    static void connect() {
+        connectionFactory = new LettuceConnectionFactory(redis.getHost(), redis.getFirstMappedPort());
+        connectionFactory.afterPropertiesSet();
+        connectionFactory.start();
+    }
+
+    @AfterAll
+    static void disconnect() {
+        connectionFactory.destroy();
+    }
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = new StringRedisTemplate(connectionFactory);
+        redisTemplate.execute((RedisCallback<Void>) connection -> {
+            connection.serverCommands().flushAll();
+            return null;
+        });
+        orphanedPictures = new OrphanedPictures(redisTemplate, userInfoRepository, storageGateway,
+                new SimpleMeterRegistry(), Duration.ofMinutes(5), Duration.ofSeconds(5));
+
+        // already due
+        redisTemplate.opsForZSet().add(CANDIDATES, KEY, 0);
+        when(storageGateway.delete(anyString())).thenReturn(CompletableFuture.completedFuture(null));
+    }
+
+    @Test
+    void deletesAnUnreferencedPicture() {
+        when(userInfoRepository.countByProfilePictureKey(KEY)).thenReturn(0L);
+
+        orphanedPictures.deleteUnreferenced();
+
+        verify(storageGateway).delete(KEY);
+        assertThat(redisTemplate.opsForZSet().score(CANDIDATES, KEY)).isNull();
+        assertThat(redisTemplate.hasKey("picture:{" + KEY + "}:deleting")).isFalse();
+    }
+
+    @Test
+    void keepsAPictureAnUploadPinnedBeforeTheSweep() {
+        // the upload found the object and has not committed its reference yet
+        orphanedPictures.pin(KEY);
+        when(userInfoRepository.countByProfilePictureKey(KEY)).thenReturn(0L);
+
+        orphanedPictures.deleteUnreferenced();
+
+        verify(storageGateway, never()).delete(anyString());
+        assertThat(redisTemplate.opsForZSet().score(CANDIDATES, KEY)).isGreaterThan(Instant.now().toEpochMilli());
+    }
+
+    @Test
+    void anUploadArrivingDuringTheSweepWaitsForTheDelete() throws Exception {
+        AtomicReference<CompletableFuture<Void>> upload = new AtomicReference<>();
+        AtomicBoolean uploadPinnedBeforeDelete = new AtomicBoolean();
+
+        // the upload pins between the sweep's reference count and its delete
+        when(userInfoRepository.countByProfilePictureKey(KEY)).thenAnswer(invocation -> {
+            upload.set(CompletableFuture.runAsync(() -> orphanedPictures.pin(KEY)));
+            Thread.sleep(300);
+            return 0L;
+        });
+        when(storageGateway.delete(KEY)).thenAnswer(invocation -> {
+            uploadPinnedBeforeDelete.set(upload.get().isDone());
+            return CompletableFuture.completedFuture(null);
+        });
+
+        orphanedPictures.deleteUnreferenced();
+        upload.get().get(5, TimeUnit.SECONDS);
+
+        // the upload went on after the object was gone, so its HEAD misses and it stores the picture again
+        assertThat(uploadPinnedBeforeDelete).isFalse();
+        assertThat(redisTemplate.hasKey("picture:{" + KEY + "}:pin")).isTrue();
+    }
+
+    @Test
+    void keepsAPictureThatIsReferencedAgain() {
+        when(userInfoRepository.countByProfilePictureKey(KEY)).thenReturn(1L);
+
+        orphanedPictures.deleteUnreferenced();
+
+        verify(storageGateway, never()).delete(anyString());
+        assertThat(redisTemplate.hasKey("picture:{" + KEY + "}:deleting")).isFalse();
+    }
+
+    @Test
+    void schedulesAPictureAgainWhenTheDeleteFails() {
+        when(userInfoRepository.countByProfilePictureKey(KEY)).thenReturn(0L);
+        when(storageGateway.delete(KEY)).thenReturn(CompletableFuture.failedFuture(new IllegalStateException("storage down")));
+
+        orphanedPictures.deleteUnreferenced();
+
+        assertThat(redisTemplate.opsForZSet().score(CANDIDATES, KEY)).isGreaterThan(Instant.now().toEpochMilli());
+        assertThat(redisTemplate.hasKey("picture:{" + KEY + "}:deleting")).isFalse();
+    }
+}